@@ -51,4 +51,8 @@ tasks {
 
 jmh {
     resultFormat = "JSON"
+    // Reports allocation rates with -PjmhGc, ie. to verify allocation free code paths
+    if (project.hasProperty("jmhGc")) {
+        profilers = listOf("gc")
+    }
 }
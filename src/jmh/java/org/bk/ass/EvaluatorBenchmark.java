@@ -18,9 +18,15 @@ public class EvaluatorBenchmark {
   public static class MyState {
 
     Evaluator evaluator = new Evaluator();
+    Evaluator.EvaluationContext context = evaluator.newContext();
+    Evaluator.EvaluationSession session = evaluator.newSession();
+    Agent additionalMarine;
     BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
     private List<Agent> agentsA = new ArrayList<>();
     private List<Agent> agentsB = new ArrayList<>();
+    // "What if we add X" variants of the same army
+    private List<List<Agent>> candidatesA = new ArrayList<>();
+    private List<Agent> enemyArmy = new ArrayList<>();
 
     @Setup
     public void setup() {
@@ -30,6 +36,32 @@ public class EvaluatorBenchmark {
       for (int i = 0; i < 8; i++) {
         agentsB.add(factory.of(UnitType.Zerg_Hydralisk));
       }
+      UnitType[] additions = {
+        UnitType.Terran_Marine,
+        UnitType.Terran_Medic,
+        UnitType.Terran_Firebat,
+        UnitType.Terran_Vulture,
+        UnitType.Terran_Siege_Tank_Tank_Mode,
+        UnitType.Terran_Goliath,
+        UnitType.Terran_Wraith,
+        UnitType.Terran_Battlecruiser
+      };
+      for (int i = 0; i < 200; i++) {
+        List<Agent> candidate = new ArrayList<>();
+        for (int j = 0; j < 20; j++) {
+          candidate.add(factory.of(UnitType.Terran_Marine));
+        }
+        for (int j = 0; j <= i / additions.length % 4; j++) {
+          candidate.add(factory.of(additions[i % additions.length]));
+        }
+        candidatesA.add(candidate);
+      }
+      for (int i = 0; i < 30; i++) {
+        enemyArmy.add(factory.of(i % 3 == 0 ? UnitType.Zerg_Lurker : UnitType.Zerg_Hydralisk));
+      }
+      additionalMarine = factory.of(UnitType.Terran_Marine);
+      candidatesA.get(0).forEach(session::addA);
+      enemyArmy.forEach(session::addB);
     }
   }
 
@@ -45,4 +77,38 @@ public class EvaluatorBenchmark {
   public double _7MutasVs8Hydras(MyState state) {
     return state.evaluator.evaluate(state.agentsA, state.agentsB);
   }
+
+  @Benchmark
+  public double _7MutasVs8Hydras_context(MyState state) {
+    return state.evaluator.evaluate(state.agentsA, state.agentsB, state.context);
+  }
+
+  @Benchmark
+  public double[] _200CandidatesVs30_loop(MyState state) {
+    double[] result = new double[state.candidatesA.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = state.evaluator.evaluate(state.candidatesA.get(i), state.enemyArmy);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public double oneMoreMarine_evaluate(MyState state) {
+    List<Agent> candidate = new ArrayList<>(state.candidatesA.get(0));
+    candidate.add(state.additionalMarine);
+    return state.evaluator.evaluate(candidate, state.enemyArmy);
+  }
+
+  @Benchmark
+  public double oneMoreMarine_session(MyState state) {
+    state.session.addA(state.additionalMarine);
+    double result = state.session.evaluate();
+    state.session.removeA(state.additionalMarine);
+    return result;
+  }
+
+  @Benchmark
+  public double[] _200CandidatesVs30_evaluateAll(MyState state) {
+    return state.evaluator.evaluateAll(state.candidatesA, state.enemyArmy);
+  }
 }
@@ -0,0 +1,75 @@
+package org.bk.ass;
+
+import org.bk.ass.sim.BWAPI4JAgentFactory;
+import org.bk.ass.sim.Simulator;
+import org.bk.ass.sim.Simulator.Builder;
+import org.bk.ass.sim.Simulator.Snapshot;
+import org.openbw.bwapi4j.test.BWDataProvider;
+import org.openbw.bwapi4j.type.UnitType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+/** Compares sequential steps with parallel steps (see {@link Builder#withParallelism}). */
+@Measurement(iterations = 5, time = 5)
+@Fork(3)
+public class ParallelSimulatorBenchmark {
+
+  @State(Scope.Thread)
+  public static class MyState {
+    @Param({"100", "200", "400"})
+    int agents;
+
+    Simulator sequential;
+    Simulator parallel;
+    BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+    // Initial state of each simulator, restored before simulating
+    Snapshot sequentialStart;
+    Snapshot parallelStart;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      sequential = battle(new Builder());
+      parallel = battle(new Builder().withParallelism(ForkJoinPool.commonPool()));
+      sequentialStart = sequential.snapshot();
+      parallelStart = parallel.snapshot();
+    }
+
+    Simulator battle(Builder builder) {
+      Simulator simulator = builder.withSeed(42).build();
+      for (int i = 0; i < agents / 2; i++) {
+        simulator.addAgentA(
+            factory
+                .of(i % 10 == 0 ? UnitType.Terran_Medic : UnitType.Terran_Marine)
+                .setX(1000 + i % 25 * 16)
+                .setY(1000 + i / 25 * 16));
+        simulator.addAgentB(
+            factory
+                .of(i % 3 == 0 ? UnitType.Zerg_Hydralisk : UnitType.Zerg_Zergling)
+                .setX(1000 + i % 25 * 16)
+                .setY(1400 + i / 25 * 16));
+      }
+      return simulator;
+    }
+  }
+
+  static {
+    try {
+      BWDataProvider.injectValues();
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Benchmark
+  public int sequential(MyState state) {
+    state.sequential.restore(state.sequentialStart);
+    return state.sequential.simulate(240);
+  }
+
+  @Benchmark
+  public int parallel(MyState state) {
+    state.parallel.restore(state.parallelStart);
+    return state.parallel.simulate(240);
+  }
+}
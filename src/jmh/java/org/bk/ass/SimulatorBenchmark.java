@@ -3,8 +3,14 @@ package org.bk.ass;
 import org.bk.ass.sim.AgentUtil;
 import org.bk.ass.sim.ApproxAttackBehavior;
 import org.bk.ass.sim.BWAPI4JAgentFactory;
+import org.bk.ass.sim.LanchesterEstimator;
+import org.bk.ass.sim.SimulationCache;
+import org.bk.ass.sim.SimulationRecorder;
 import org.bk.ass.sim.Simulator;
 import org.bk.ass.sim.Simulator.Builder;
+import org.bk.ass.sim.Simulator.Snapshot;
+import org.bk.ass.sim.SimulatorMetrics;
+import org.bk.ass.sim.SimulatorPool;
 import org.openbw.bwapi4j.test.BWDataProvider;
 import org.openbw.bwapi4j.type.UnitType;
 import org.openjdk.jmh.annotations.*;
@@ -18,28 +24,123 @@ public class SimulatorBenchmark {
 
     Simulator simulator;
     Simulator simulatorFS4;
+    Simulator recordedSimulator;
+    SimulationRecorder recorder = new SimulationRecorder(1 << 16);
+    Simulator measuredSimulator;
+    SimulatorMetrics metrics = new SimulatorMetrics();
     Simulator approxSim;
+    Simulator approachSim;
+    Simulator approachSimFS4;
+    Simulator skipApproachSim;
+    LanchesterEstimator lanchesterEstimator = new LanchesterEstimator();
     BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+    // Initial state of each simulator, restored before simulating
+    Snapshot simulatorStart;
+    Snapshot simulatorFS4Start;
+    Snapshot recordedSimulatorStart;
+    Snapshot measuredSimulatorStart;
+    Snapshot approxSimStart;
+    Snapshot approachSimStart;
+    Snapshot approachSimFS4Start;
+    Snapshot skipApproachSimStart;
 
-    @Setup(Level.Invocation)
+    @Setup(Level.Trial)
     public void setup() {
       simulator = new Builder().build();
       simulatorFS4 = new Builder().withFrameSkip(4).build();
+      recordedSimulator = new Builder().build();
+      recordedSimulator.setRecorder(recorder);
+      measuredSimulator = new Builder().build();
+      measuredSimulator.setMetrics(metrics);
       approxSim = new Builder().withFrameSkip(37).withPlayerABehavior(new ApproxAttackBehavior()).withPlayerABehavior(new ApproxAttackBehavior()).build();
 
       for (int i = 0; i < 30; i++) {
         simulator.addAgentA(factory.of(UnitType.Zerg_Mutalisk));
         simulatorFS4.addAgentA(factory.of(UnitType.Zerg_Mutalisk));
+        recordedSimulator.addAgentA(factory.of(UnitType.Zerg_Mutalisk));
+        measuredSimulator.addAgentA(factory.of(UnitType.Zerg_Mutalisk));
         approxSim.addAgentA(factory.of(UnitType.Zerg_Mutalisk));
       }
       for (int i = 0; i < 30; i++) {
         simulator.addAgentB(factory.of(UnitType.Zerg_Hydralisk));
         simulatorFS4.addAgentB(factory.of(UnitType.Zerg_Hydralisk));
+        recordedSimulator.addAgentB(factory.of(UnitType.Zerg_Hydralisk));
+        measuredSimulator.addAgentB(factory.of(UnitType.Zerg_Hydralisk));
         approxSim.addAgentB(factory.of(UnitType.Zerg_Hydralisk));
       }
 
+      approachSim = approach(new Builder());
+      approachSimFS4 = approach(new Builder().withFrameSkip(4));
+      skipApproachSim = approach(new Builder().withSkipApproach(true));
+
       AgentUtil.randomizePositions(approxSim.getAgentsA(), 0, 0, 32, 32);
       AgentUtil.randomizePositions(approxSim.getAgentsB(), 32, 0, 64, 64);
+
+      simulatorStart = simulator.snapshot();
+      simulatorFS4Start = simulatorFS4.snapshot();
+      recordedSimulatorStart = recordedSimulator.snapshot();
+      measuredSimulatorStart = measuredSimulator.snapshot();
+      approxSimStart = approxSim.snapshot();
+      approachSimStart = approachSim.snapshot();
+      approachSimFS4Start = approachSimFS4.snapshot();
+      skipApproachSimStart = skipApproachSim.snapshot();
+    }
+
+    Simulator approach(Builder builder) {
+      Simulator simulator = builder.build();
+      for (int i = 0; i < 30; i++) {
+        simulator.addAgentA(factory.of(UnitType.Protoss_Zealot).setX(1000 + i * 16).setY(1000));
+        simulator.addAgentB(factory.of(UnitType.Terran_Marine).setX(1000 + i * 16).setY(1600));
+      }
+      return simulator;
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class CacheState {
+    SimulationCache cache = new SimulationCache();
+  }
+
+  @State(Scope.Thread)
+  public static class PoolState {
+    SimulatorPool pool = new SimulatorPool(new Builder());
+    BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+  }
+
+  /**
+   * Reports the number of simulation steps and the difference of the evaluation compared to
+   * simulating with frame skip 1 (mean of all invocations of an iteration).
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Accuracy {
+    public double steps;
+    public double evalError;
+    int invocations;
+    int referenceDelta;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      MyState state = new MyState();
+      Simulator simulator = state.approach(new Builder());
+      simulator.simulate(96);
+      referenceDelta = simulator.evalToInt(Simulator.HEALTH_AND_SHIELD).delta();
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      steps = 0;
+      evalError = 0;
+      invocations = 0;
+    }
+
+    int record(Simulator simulator, int framesLeft) {
+      int error =
+          Math.abs(simulator.evalToInt(Simulator.HEALTH_AND_SHIELD).delta() - referenceDelta);
+      invocations++;
+      steps += (simulator.getSteps() - steps) / invocations;
+      evalError += (error - evalError) / invocations;
+      return framesLeft;
     }
   }
 
@@ -51,24 +152,94 @@ public class SimulatorBenchmark {
     }
   }
 
+  /** Restores the initial state of the simulator, simulating modifies its agents. */
+  private static Simulator restored(Simulator simulator, Snapshot start) {
+    simulator.restore(start);
+    return simulator;
+  }
+
   @Benchmark
   public int _30MutasVs30Hydras(MyState state) {
-    return state.simulator.simulate(-1);
+    return restored(state.simulator, state.simulatorStart).simulate(-1);
   }
 
   @Benchmark
   public int _30MutasVs30Hydras_fs4(MyState state) {
-    return state.simulatorFS4.simulate(-1);
+    return restored(state.simulatorFS4, state.simulatorFS4Start).simulate(-1);
+  }
+
+  @Benchmark
+  public int _30MutasVs30Hydras_recorded(MyState state) {
+    return restored(state.recordedSimulator, state.recordedSimulatorStart).simulate(-1);
+  }
+
+  /** The same scenario is simulated in each invocation, so all but the first are cache hits. */
+  @Benchmark
+  public int _30MutasVs30Hydras_cached(MyState state, CacheState cacheState) {
+    return cacheState
+        .cache
+        .simulate(restored(state.simulator, state.simulatorStart), -1, Simulator.HEALTH_AND_SHIELD)
+        .framesLeft;
+  }
+
+  /** Compare with {@link #_30MutasVs30Hydras} for the cost of collecting metrics. */
+  @Benchmark
+  public int _30MutasVs30Hydras_metrics(MyState state) {
+    return restored(state.measuredSimulator, state.measuredSimulatorStart).simulate(-1);
+  }
+
+  @Benchmark
+  public int _30MutasVs30Hydras_lanchester(MyState state) {
+    return state.lanchesterEstimator.estimate(
+            state.simulator.getAgentsA(), state.simulator.getAgentsB(), Integer.MAX_VALUE)
+        .frames;
   }
 
   @Benchmark
   public int _30MutasVs30Hydras_approx(MyState state) {
-    return state.approxSim.simulate(-1);
+    return restored(state.approxSim, state.approxSimStart).simulate(-1);
+  }
+
+  @Benchmark
+  public int _30ZealotsVs30Marines_approach(MyState state, Accuracy accuracy) {
+    Simulator simulator = restored(state.approachSim, state.approachSimStart);
+    return accuracy.record(simulator, simulator.simulate(96));
+  }
+
+  @Benchmark
+  public int _30ZealotsVs30Marines_approach_fs4(MyState state, Accuracy accuracy) {
+    Simulator simulator = restored(state.approachSimFS4, state.approachSimFS4Start);
+    return accuracy.record(simulator, simulator.simulate(96));
+  }
+
+  @Benchmark
+  public int _30ZealotsVs30Marines_skipApproach(MyState state, Accuracy accuracy) {
+    Simulator simulator = restored(state.skipApproachSim, state.skipApproachSimStart);
+    return accuracy.record(simulator, simulator.simulate(96));
+  }
+
+  @Benchmark
+  public int _1MarineVs1Zergling_newSimulator(PoolState state) {
+    Simulator simulator = new Builder().build();
+    simulator.addAgentA(state.factory.of(UnitType.Terran_Marine));
+    simulator.addAgentB(state.factory.of(UnitType.Zerg_Zergling));
+    return simulator.simulate(8);
+  }
+
+  @Benchmark
+  public int _1MarineVs1Zergling_pooledSimulator(PoolState state) {
+    return state.pool.withSimulator(
+        simulator -> {
+          simulator.addAgentA(state.factory.of(UnitType.Terran_Marine));
+          simulator.addAgentB(state.factory.of(UnitType.Zerg_Zergling));
+          return simulator.simulate(8);
+        });
   }
 
+  /** Includes restoring the agents to be reset. */
   @Benchmark
   public int clearCollisionMaps(MyState state) {
-    state.simulator.reset();
+    restored(state.simulator, state.simulatorStart).reset();
     return state.simulator.getAgentsA().size() + state.simulator.getAgentsB().size();
   }
 }
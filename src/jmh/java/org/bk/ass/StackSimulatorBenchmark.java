@@ -0,0 +1,123 @@
+package org.bk.ass;
+
+import org.bk.ass.sim.Agent;
+import org.bk.ass.sim.BWAPI4JAgentFactory;
+import org.bk.ass.sim.Simulator;
+import org.bk.ass.sim.StackSimulator;
+import org.openbw.bwapi4j.test.BWDataProvider;
+import org.openbw.bwapi4j.type.UnitType;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares simulating each agent with simulating stacks of agents (see {@link StackSimulator}).
+ */
+@Measurement(iterations = 5, time = 5)
+@Fork(3)
+public class StackSimulatorBenchmark {
+
+  @State(Scope.Thread)
+  public static class MyState {
+    @Param({"100", "200", "400"})
+    int agents;
+
+    Simulator simulator = new Simulator.Builder().build();
+    StackSimulator stackSimulator = new StackSimulator.Builder().build();
+    BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+    Agent[] agentsA;
+    Agent[] agentsB;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      agentsA = new Agent[agents / 2];
+      agentsB = new Agent[agents / 2];
+      for (int i = 0; i < agents / 2; i++) {
+        agentsA[i] = agentA(i);
+        agentsB[i] = agentB(i);
+      }
+    }
+
+    // Simulating consumes the agents, so each invocation adds copies - for both simulators alike
+    Simulator prepareSimulator() {
+      simulator.reset();
+      for (int i = 0; i < agentsA.length; i++) {
+        simulator.addAgentA(new Agent(agentsA[i]));
+        simulator.addAgentB(new Agent(agentsB[i]));
+      }
+      return simulator;
+    }
+
+    StackSimulator prepareStackSimulator() {
+      stackSimulator.reset();
+      for (int i = 0; i < agentsA.length; i++) {
+        stackSimulator.addAgentA(new Agent(agentsA[i]));
+        stackSimulator.addAgentB(new Agent(agentsB[i]));
+      }
+      return stackSimulator;
+    }
+
+    Agent agentA(int i) {
+      return factory
+          .of(i % 4 == 0 ? UnitType.Terran_Firebat : UnitType.Terran_Marine)
+          .setX(1000 + i % 25 * 16)
+          .setY(1000 + i / 25 * 16);
+    }
+
+    Agent agentB(int i) {
+      return factory
+          .of(i % 3 == 0 ? UnitType.Zerg_Hydralisk : UnitType.Zerg_Zergling)
+          .setX(1000 + i % 25 * 16)
+          .setY(1400 + i / 25 * 16);
+    }
+  }
+
+  /**
+   * Reports the difference of the evaluation of the {@link StackSimulator} compared to the {@link
+   * Simulator} (mean of all invocations of an iteration).
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Accuracy {
+    public double evalError;
+    int invocations;
+    int referenceDelta;
+
+    @Setup(Level.Trial)
+    public void setup(MyState state) {
+      Simulator simulator = state.prepareSimulator();
+      simulator.simulate(240);
+      referenceDelta = simulator.evalToInt(Simulator.HEALTH_AND_SHIELD).delta();
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      evalError = 0;
+      invocations = 0;
+    }
+
+    int record(StackSimulator simulator, int framesLeft) {
+      int error =
+          Math.abs(simulator.evalToInt(Simulator.HEALTH_AND_SHIELD).delta() - referenceDelta);
+      evalError += (error - evalError) / ++invocations;
+      return framesLeft;
+    }
+  }
+
+  static {
+    try {
+      BWDataProvider.injectValues();
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Benchmark
+  public int perAgent(MyState state) {
+    return state.prepareSimulator().simulate(240);
+  }
+
+  @Benchmark
+  public int stacked(MyState state, Accuracy accuracy) {
+    StackSimulator stackSimulator = state.prepareStackSimulator();
+    return accuracy.record(stackSimulator, stackSimulator.simulate(240));
+  }
+}
@@ -12,11 +12,13 @@ import static java.lang.Math.min;
 public class Agent {
   static final BiConsumer<Agent, Collection<Agent>> CARRIER_DEATH_HANDLER =
       (carrier, agents) -> agents.removeAll(carrier.interceptors);
+  static final BiConsumer<Agent, Collection<Agent>> NO_DEATH_HANDLER = (ignored1, ignored2) -> {};
   // Retrieved from OpenBW
-  private static final int STIM_TIMER = 37;
-  private static final int STIM_ENERGY_COST_SHIFTED = 10 << 8;
+  static final int STIM_TIMER = 37;
+  static final int STIM_ENERGY_COST_SHIFTED = 10 << 8;
 
-  private final String name;
+  // Shared static traits, replaced by the setters of the traits
+  AgentType type;
   TargetingPriority attackTargetPriority = TargetingPriority.HIGHEST;
   int armorShifted;
   int shieldUpgrades;
@@ -46,35 +48,18 @@ public class Agent {
 
   int cooldown;
   int maxCooldown;
-  // Number of frames a move would break the attack
-  int stopFrames;
   int remainingStimFrames;
   boolean canStim;
   int plagueDamagePerFrameShifted;
 
-  // Is Zerg and not an Egg/Larva
-  boolean regeneratesHealth;
-
-  // Dies on attack
-  boolean isSuicider;
-  boolean isHealer;
-  boolean isFlyer;
-  boolean isOrganic;
-  boolean isMechanic;
-  boolean isKiter;
-  boolean isRepairer;
   boolean protectedByDarkSwarm;
   boolean burrowed;
-  boolean burrowedAttacker;
   // Visible to the other force
   boolean detected;
 
   boolean isStasised;
   boolean isLockeddown;
 
-  UnitSize size;
-
-  boolean isMelee;
   Weapon airWeapon;
   Weapon groundWeapon;
 
@@ -84,11 +69,16 @@ public class Agent {
 
   List<Agent> interceptors = Collections.emptyList();
 
+  // Maintained by AgentGrid
+  int gridCell = -1;
+  Agent nextInCell;
+  Agent previousInCell;
+
   // Allow replacement of units on death (for example bunker -> marines)
-  BiConsumer<Agent, Collection<Agent>> onDeathHandler = (ignored1, ignored2) -> {};
+  BiConsumer<Agent, Collection<Agent>> onDeathHandler = NO_DEATH_HANDLER;
 
   public Agent(String name) {
-    this.name = name;
+    this.type = AgentType.of(name);
   }
 
   /**
@@ -101,7 +91,7 @@ public class Agent {
    * </ul>
    */
   public Agent(Agent other) {
-    this.name = other.name;
+    this.type = other.sharedType();
     this.attackTargetPriority = other.attackTargetPriority;
     this.armorShifted = other.armorShifted;
     this.shieldUpgrades = other.shieldUpgrades;
@@ -123,26 +113,14 @@ public class Agent {
     this.maxEnergyShifted = other.maxEnergyShifted;
     this.cooldown = other.cooldown;
     this.maxCooldown = other.maxCooldown;
-    this.stopFrames = other.stopFrames;
     this.remainingStimFrames = other.remainingStimFrames;
     this.canStim = other.canStim;
     this.plagueDamagePerFrameShifted = other.plagueDamagePerFrameShifted;
-    this.regeneratesHealth = other.regeneratesHealth;
-    this.isSuicider = other.isSuicider;
-    this.isHealer = other.isHealer;
-    this.isFlyer = other.isFlyer;
-    this.isOrganic = other.isOrganic;
-    this.isMechanic = other.isMechanic;
-    this.isKiter = other.isKiter;
-    this.isRepairer = other.isRepairer;
     this.protectedByDarkSwarm = other.protectedByDarkSwarm;
     this.burrowed = other.burrowed;
-    this.burrowedAttacker = other.burrowedAttacker;
     this.detected = other.detected;
     this.isStasised = other.isStasised;
     this.isLockeddown = other.isLockeddown;
-    this.size = other.size;
-    this.isMelee = other.isMelee;
     this.airWeapon = other.airWeapon;
     this.groundWeapon = other.groundWeapon;
     this.onDeathHandler = other.onDeathHandler;
@@ -161,12 +139,12 @@ public class Agent {
   }
 
   public Agent setMelee(boolean melee) {
-    isMelee = melee;
+    type = type.withFlag(AgentType.MELEE, melee);
     return this;
   }
 
   public Agent setBurrowedAttacker(boolean burrowedAttacker) {
-    this.burrowedAttacker = burrowedAttacker;
+    type = type.withFlag(AgentType.BURROWED_ATTACKER, burrowedAttacker);
     return this;
   }
 
@@ -195,9 +173,67 @@ public class Agent {
     return this;
   }
 
+  public String getName() {
+    return type.name;
+  }
+
+  /** @return the static traits of this agent, shared with all agents with the same traits */
+  public AgentType getType() {
+    return sharedType();
+  }
+
+  /**
+   * Interns the type of this agent, setters will replace it instead of modifying it afterwards.
+   * Done implicitly by everything comparing types of agents, ie. when adding agents to simulators
+   * or building cache keys.
+   */
+  final AgentType sharedType() {
+    return type = type.share();
+  }
+
+  final boolean isSuicider() {
+    return type.is(AgentType.SUICIDER);
+  }
+
+  final boolean isHealer() {
+    return type.is(AgentType.HEALER);
+  }
+
+  final boolean isFlyer() {
+    return type.is(AgentType.FLYER);
+  }
+
+  final boolean isOrganic() {
+    return type.is(AgentType.ORGANIC);
+  }
+
+  final boolean isMechanic() {
+    return type.is(AgentType.MECHANIC);
+  }
+
+  final boolean isKiter() {
+    return type.is(AgentType.KITER);
+  }
+
+  final boolean isRepairer() {
+    return type.is(AgentType.REPAIRER);
+  }
+
+  final boolean isMelee() {
+    return type.is(AgentType.MELEE);
+  }
+
+  final boolean isBurrowedAttacker() {
+    return type.is(AgentType.BURROWED_ATTACKER);
+  }
+
+  final boolean regeneratesHealth() {
+    return type.is(AgentType.REGENERATES_HEALTH);
+  }
+
   @Override
   public String toString() {
-    return name
+    return type.name
         + " ("
         + x
         + ", "
@@ -293,47 +329,47 @@ public class Agent {
   }
 
   public Agent setStopFrames(int stopFrames) {
-    this.stopFrames = stopFrames;
+    type = type.withStopFrames(stopFrames);
     return this;
   }
 
   public Agent setRegeneratesHealth(boolean regeneratesHealth) {
-    this.regeneratesHealth = regeneratesHealth;
+    type = type.withFlag(AgentType.REGENERATES_HEALTH, regeneratesHealth);
     return this;
   }
 
   public Agent setSuicider(boolean suicider) {
-    isSuicider = suicider;
+    type = type.withFlag(AgentType.SUICIDER, suicider);
     return this;
   }
 
   public Agent setRepairer(boolean repairer) {
-    isRepairer = repairer;
+    type = type.withFlag(AgentType.REPAIRER, repairer);
     return this;
   }
 
   public Agent setMechanic(boolean mechanic) {
-    this.isMechanic = mechanic;
+    type = type.withFlag(AgentType.MECHANIC, mechanic);
     return this;
   }
 
   public Agent setHealer(boolean healer) {
-    isHealer = healer;
+    type = type.withFlag(AgentType.HEALER, healer);
     return this;
   }
 
   public Agent setFlyer(boolean flyer) {
-    isFlyer = flyer;
+    type = type.withFlag(AgentType.FLYER, flyer);
     return this;
   }
 
   public Agent setOrganic(boolean organic) {
-    isOrganic = organic;
+    type = type.withFlag(AgentType.ORGANIC, organic);
     return this;
   }
 
   public Agent setSize(UnitSize size) {
-    this.size = size;
+    type = type.withSize(size);
     return this;
   }
 
@@ -343,7 +379,7 @@ public class Agent {
   }
 
   public Agent setKiter(boolean kiter) {
-    isKiter = kiter;
+    type = type.withFlag(AgentType.KITER, kiter);
     return this;
   }
 
@@ -389,7 +425,7 @@ public class Agent {
   }
 
   final Weapon weaponVs(Agent other) {
-    if (other.isFlyer) {
+    if (other.isFlyer()) {
       return airWeapon;
     }
     return groundWeapon;
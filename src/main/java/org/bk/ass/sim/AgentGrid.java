@@ -0,0 +1,288 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.collection.UnorderedCollection;
+
+import java.util.function.BiPredicate;
+
+import static java.lang.Math.max;
+
+/**
+ * Buckets the agents of one player by position. Used by behaviors to quickly find candidates within
+ * a given range, instead of checking every agent. Cells are {@value #CELL_SIZE} pixels wide (4
+ * tiles of the collision map) and are hashed into a small fixed table, so the memory used does not
+ * depend on the size of the map.
+ *
+ * <p>The grid is rebuilt by the {@link Simulator} at the start of each simulation and updated
+ * whenever an agent moves or dies. The cell links are stored in the agents, so an agent can only be
+ * part of one grid at a time. Grids are cleared at the end of each simulation.
+ */
+public class AgentGrid {
+  /** With fewer agents, behaviors just check all of them instead of using the grid. */
+  public static final int MIN_AGENTS = 48;
+  static final int CELL_SIZE = 64;
+  private static final int CELL_SHIFT = 6;
+  private static final int CELLS_PER_ROW = 8192 / CELL_SIZE;
+  private static final int BUCKETS = 1024;
+
+  private final Agent[] buckets = new Agent[BUCKETS];
+  private UnorderedCollection<Agent> agents;
+  private int maxRange;
+
+  /**
+   * (Re-)adds all the given agents. Queries will fall back to iterating over the given collection
+   * if it would be cheaper than checking the cells.
+   */
+  public void rebuild(UnorderedCollection<Agent> agents) {
+    clear();
+    this.agents = agents;
+    for (int i = agents.size() - 1; i >= 0; i--) {
+      add(agents.get(i));
+    }
+  }
+
+  /** Removes all agents and releases all references. */
+  public void clear() {
+    for (int i = 0; i < BUCKETS; i++) {
+      Agent agent = buckets[i];
+      while (agent != null) {
+        Agent next = agent.nextInCell;
+        agent.nextInCell = null;
+        agent.previousInCell = null;
+        agent.gridCell = -1;
+        agent = next;
+      }
+      buckets[i] = null;
+    }
+    agents = null;
+    maxRange = 0;
+  }
+
+  void add(Agent agent) {
+    if (agent.gridCell >= 0) {
+      throw new IllegalStateException(agent + " is already being simulated by another simulator.");
+    }
+    link(agent, cellOf(agent.x, agent.y));
+    maxRange = max(maxRange, max(agent.airWeapon.maxRange, agent.groundWeapon.maxRange));
+  }
+
+  void remove(Agent agent) {
+    if (agent.gridCell < 0) {
+      return;
+    }
+    unlink(agent);
+    agent.gridCell = -1;
+  }
+
+  /** Has to be called after the position of an agent was changed. */
+  void update(Agent agent) {
+    int cell = cellOf(agent.x, agent.y);
+    if (cell != agent.gridCell) {
+      if (agent.gridCell >= 0) {
+        unlink(agent);
+      }
+      link(agent, cell);
+    }
+  }
+
+  /** The maximum weapon range of all agents added since the last rebuild. */
+  public int getMaxRange() {
+    return maxRange;
+  }
+
+  /**
+   * Adds all agents within the given radius around the given position to the result. The result is
+   * cleared before.
+   */
+  public void query(int x, int y, int radius, UnorderedCollection<Agent> result) {
+    result.clear();
+    int radiusSquared = radius * radius;
+    int cx0 = max(0, x - radius) >> CELL_SHIFT;
+    int cy0 = max(0, y - radius) >> CELL_SHIFT;
+    int cx1 = Math.min(CELLS_PER_ROW - 1, (x + radius) >> CELL_SHIFT);
+    int cy1 = Math.min(CELLS_PER_ROW - 1, (y + radius) >> CELL_SHIFT);
+    if (agents != null && (cx1 - cx0 + 1) * (cy1 - cy0 + 1) >= agents.size()) {
+      // Checking all agents is cheaper than checking all cells
+      for (int i = agents.size() - 1; i >= 0; i--) {
+        Agent agent = agents.get(i);
+        if (distanceSquared(agent, x, y) <= radiusSquared) {
+          result.add(agent);
+        }
+      }
+      return;
+    }
+    for (int cy = cy0; cy <= cy1; cy++) {
+      for (int cx = cx0; cx <= cx1; cx++) {
+        int cell = cy * CELLS_PER_ROW + cx;
+        for (Agent agent = buckets[bucketOf(cell)]; agent != null; agent = agent.nextInCell) {
+          // Different cells can share a bucket
+          if (agent.gridCell == cell && distanceSquared(agent, x, y) <= radiusSquared) {
+            result.add(agent);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks if there is an agent within the given radius around the given source agent which matches
+   * the given criteria.
+   *
+   * @param criteria called with the source agent and the candidate
+   */
+  public boolean anyWithin(Agent source, int radius, BiPredicate<Agent, Agent> criteria) {
+    if (agents == null) {
+      return false;
+    }
+    int x = source.x;
+    int y = source.y;
+    int radiusSquared = radius * radius;
+    int cx0 = max(0, x - radius) >> CELL_SHIFT;
+    int cy0 = max(0, y - radius) >> CELL_SHIFT;
+    int cx1 = Math.min(CELLS_PER_ROW - 1, (x + radius) >> CELL_SHIFT);
+    int cy1 = Math.min(CELLS_PER_ROW - 1, (y + radius) >> CELL_SHIFT);
+    if ((cx1 - cx0 + 1) * (cy1 - cy0 + 1) >= agents.size()) {
+      for (int i = agents.size() - 1; i >= 0; i--) {
+        Agent agent = agents.get(i);
+        if (agent != source
+            && distanceSquared(agent, x, y) <= radiusSquared
+            && criteria.test(source, agent)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    for (int cy = cy0; cy <= cy1; cy++) {
+      for (int cx = cx0; cx <= cx1; cx++) {
+        int cell = cy * CELLS_PER_ROW + cx;
+        for (Agent agent = buckets[bucketOf(cell)]; agent != null; agent = agent.nextInCell) {
+          if (agent.gridCell == cell
+              && agent != source
+              && distanceSquared(agent, x, y) <= radiusSquared
+              && criteria.test(source, agent)) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the agent closest to the given source agent which matches the given criteria, or null
+   * if there is none. Cells are searched in rings around the source, if more cells than agents would
+   * have to be checked all agents are checked instead.
+   *
+   * @param hint a likely candidate (ie. the previous target) or null, limits the rings to search
+   * @param criteria called with the source agent and the candidate
+   */
+  public Agent nearest(Agent source, Agent hint, BiPredicate<Agent, Agent> criteria) {
+    if (agents == null) {
+      return null;
+    }
+    int x = source.x;
+    int y = source.y;
+    Agent selected = null;
+    int selectedDistanceSquared = Integer.MAX_VALUE;
+    if (hint != null && hint != source && criteria.test(source, hint)) {
+      selected = hint;
+      selectedDistanceSquared = distanceSquared(hint, x, y);
+      int rings = (int) Math.sqrt(selectedDistanceSquared) / CELL_SIZE + 2;
+      if ((2 * rings + 1) * (2 * rings + 1) * 2 > agents.size()) {
+        return linearNearest(source, criteria);
+      }
+    }
+    int cx = x >> CELL_SHIFT;
+    int cy = y >> CELL_SHIFT;
+    int maxRing = max(max(cx, CELLS_PER_ROW - 1 - cx), max(cy, CELLS_PER_ROW - 1 - cy));
+    int cellsChecked = 0;
+    for (int ring = 0; ring <= maxRing; ring++) {
+      // All agents in this or further rings are at least this far away
+      int minDistance = (ring - 1) * CELL_SIZE;
+      if (selected != null && minDistance > 0 && minDistance * minDistance >= selectedDistanceSquared) {
+        break;
+      }
+      if (cellsChecked * 2 > agents.size()) {
+        return linearNearest(source, criteria);
+      }
+      for (int dy = -ring; dy <= ring; dy++) {
+        int ry = cy + dy;
+        if (ry < 0 || ry >= CELLS_PER_ROW) {
+          continue;
+        }
+        // Inner rows only have a left and a right cell in this ring
+        int step = dy == -ring || dy == ring ? 1 : max(1, 2 * ring);
+        for (int dx = -ring; dx <= ring; dx += step) {
+          int rx = cx + dx;
+          if (rx < 0 || rx >= CELLS_PER_ROW) {
+            continue;
+          }
+          cellsChecked++;
+          int cell = ry * CELLS_PER_ROW + rx;
+          for (Agent agent = buckets[bucketOf(cell)]; agent != null; agent = agent.nextInCell) {
+            if (agent.gridCell == cell && agent != source) {
+              int distanceSquared = distanceSquared(agent, x, y);
+              if (distanceSquared < selectedDistanceSquared && criteria.test(source, agent)) {
+                selected = agent;
+                selectedDistanceSquared = distanceSquared;
+              }
+            }
+          }
+        }
+      }
+    }
+    return selected;
+  }
+
+  private Agent linearNearest(Agent source, BiPredicate<Agent, Agent> criteria) {
+    Agent selected = null;
+    int selectedDistanceSquared = Integer.MAX_VALUE;
+    for (int i = agents.size() - 1; i >= 0; i--) {
+      Agent agent = agents.get(i);
+      if (agent != source) {
+        int distanceSquared = distanceSquared(agent, source.x, source.y);
+        if (distanceSquared < selectedDistanceSquared && criteria.test(source, agent)) {
+          selected = agent;
+          selectedDistanceSquared = distanceSquared;
+        }
+      }
+    }
+    return selected;
+  }
+
+  private void link(Agent agent, int cell) {
+    int bucket = bucketOf(cell);
+    Agent head = buckets[bucket];
+    agent.gridCell = cell;
+    agent.previousInCell = null;
+    agent.nextInCell = head;
+    if (head != null) {
+      head.previousInCell = agent;
+    }
+    buckets[bucket] = agent;
+  }
+
+  private void unlink(Agent agent) {
+    if (agent.previousInCell != null) {
+      agent.previousInCell.nextInCell = agent.nextInCell;
+    } else {
+      buckets[bucketOf(agent.gridCell)] = agent.nextInCell;
+    }
+    if (agent.nextInCell != null) {
+      agent.nextInCell.previousInCell = agent.previousInCell;
+    }
+    agent.nextInCell = null;
+    agent.previousInCell = null;
+  }
+
+  private static int distanceSquared(Agent agent, int x, int y) {
+    return (agent.x - x) * (agent.x - x) + (agent.y - y) * (agent.y - y);
+  }
+
+  private static int cellOf(int x, int y) {
+    return (y >> CELL_SHIFT) * CELLS_PER_ROW + (x >> CELL_SHIFT);
+  }
+
+  private static int bucketOf(int cell) {
+    return (cell ^ (cell >>> 7) * 31) & (BUCKETS - 1);
+  }
+}
@@ -0,0 +1,158 @@
+package org.bk.ass.sim;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The static traits of an {@link Agent}: name, role flags, size and stop frames. These are the same
+ * for all agents of a unit type, so instances are interned and shared by all agents with the same
+ * traits. Copying an agent (ie. for snapshots) then only copies a reference, and the behaviors read
+ * the traits from a few shared objects.
+ *
+ * <p>A new agent owns its type, so the setters of {@link Agent} modify it in place. Once the agent
+ * is copied or added to a simulator, its type is interned and never modified again: Setters then
+ * replace the type of the agent with a private copy having the changed trait. Interned types are
+ * only weakly referenced, so types of agents which are no longer used can be garbage collected.
+ *
+ * <p>Interning is thread-safe, so agents can be keyed or added to simulators on different threads.
+ * Setting the traits of one agent concurrently with that is not.
+ */
+public final class AgentType {
+  static final int SUICIDER = 1;
+  static final int HEALER = 1 << 1;
+  static final int FLYER = 1 << 2;
+  static final int ORGANIC = 1 << 3;
+  static final int MECHANIC = 1 << 4;
+  static final int KITER = 1 << 5;
+  static final int REPAIRER = 1 << 6;
+  static final int MELEE = 1 << 7;
+  static final int BURROWED_ATTACKER = 1 << 8;
+  // Is Zerg and not an Egg/Larva
+  static final int REGENERATES_HEALTH = 1 << 9;
+
+  // Guarded by itself
+  private static final Map<AgentType, WeakReference<AgentType>> TYPES = new WeakHashMap<>();
+  private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+  // Unique per instance, never reused - not part of equals
+  final int id = NEXT_ID.getAndIncrement();
+
+  final String name;
+  int flags;
+  UnitSize size;
+  int sizeIndex;
+  // Number of frames a move would break the attack
+  int stopFrames;
+  // Set once interned, the traits must not be modified afterwards. Read without holding the lock
+  private volatile boolean shared;
+
+  private AgentType(String name, int flags, UnitSize size, int stopFrames) {
+    this.name = Objects.requireNonNull(name);
+    this.flags = flags;
+    this.size = size;
+    this.sizeIndex = DamageTable.sizeIndex(size);
+    this.stopFrames = stopFrames;
+  }
+
+  /** @return a new, not yet shared type with the given name and no other traits */
+  static AgentType of(String name) {
+    return new AgentType(name, 0, null, 0);
+  }
+
+  /** @return the interned type with the same traits, this type if it is interned already */
+  AgentType share() {
+    if (shared) {
+      return this;
+    }
+    synchronized (TYPES) {
+      WeakReference<AgentType> reference = TYPES.get(this);
+      AgentType existing = reference != null ? reference.get() : null;
+      if (existing != null) {
+        return existing;
+      }
+      shared = true;
+      TYPES.put(this, new WeakReference<>(this));
+      return this;
+    }
+  }
+
+  AgentType withFlag(int flag, boolean value) {
+    int newFlags = value ? flags | flag : flags & ~flag;
+    if (newFlags == flags) {
+      return this;
+    }
+    AgentType type = modifiable();
+    type.flags = newFlags;
+    return type;
+  }
+
+  AgentType withSize(UnitSize size) {
+    if (size == this.size) {
+      return this;
+    }
+    AgentType type = modifiable();
+    type.size = size;
+    type.sizeIndex = DamageTable.sizeIndex(size);
+    return type;
+  }
+
+  AgentType withStopFrames(int stopFrames) {
+    if (stopFrames == this.stopFrames) {
+      return this;
+    }
+    AgentType type = modifiable();
+    type.stopFrames = stopFrames;
+    return type;
+  }
+
+  private AgentType modifiable() {
+    return shared ? new AgentType(name, flags, size, stopFrames) : this;
+  }
+
+  final boolean is(int flag) {
+    return (flags & flag) != 0;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public UnitSize getSize() {
+    return size;
+  }
+
+  public int getStopFrames() {
+    return stopFrames;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    AgentType other = (AgentType) o;
+    return flags == other.flags
+        && stopFrames == other.stopFrames
+        && size == other.size
+        && name.equals(other.name);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = name.hashCode();
+    result = 31 * result + flags;
+    result = 31 * result + Objects.hashCode(size);
+    return 31 * result + stopFrames;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -6,7 +6,9 @@ import java.util.SplittableRandom;
 import static java.lang.Math.*;
 
 public class AgentUtil {
-  private static final SplittableRandom rnd = new SplittableRandom();
+  // SplittableRandom is not thread-safe, simulators might run concurrently
+  private static final ThreadLocal<SplittableRandom> rnd =
+      ThreadLocal.withInitial(SplittableRandom::new);
 
   // Retrieved from OpenBW
   public static final int INTERCEPTOR_COOLDOWN = 45;
@@ -29,9 +31,18 @@ public class AgentUtil {
   }
 
   public static void moveAwayFrom(int frames, Agent agent, Agent target, float distance) {
+    moveAwayFrom(frames, agent, target, distance, rnd.get());
+  }
+
+  /**
+   * Moves the agent away from the target. If both are at the same position, the given random source
+   * is used to select a direction.
+   */
+  public static void moveAwayFrom(
+      int frames, Agent agent, Agent target, float distance, SplittableRandom random) {
     float travelled = frames * agent.speed;
     if (distance == 0) {
-      double a = rnd.nextDouble(Math.PI * 2);
+      double a = random.nextDouble(Math.PI * 2);
       agent.vx = (int) (cos(a) * travelled);
       agent.vy = (int) (sin(a) * travelled);
     } else {
@@ -45,11 +56,22 @@ public class AgentUtil {
   }
 
   public static void dealDamage(Agent agent, Weapon wpn, Agent target) {
+    int damage = damageVs(agent, wpn, target);
+    if (damage >= 0) {
+      applyDamage(target, wpn, damage);
+    }
+  }
+
+  /**
+   * @return the damage the agent deals to the target with the given weapon before armor and
+   *     shields, or -1 if the target can't be hit
+   */
+  static int damageVs(Agent agent, Weapon wpn, Agent target) {
     int remainingDamage = wpn.damageShifted;
 
-    if (!agent.isMelee) {
+    if (!agent.isMelee()) {
       // https://liquipedia.net/starcraft/Dark_Swarm
-      if (target.protectedByDarkSwarm) return;
+      if (target.protectedByDarkSwarm) return -1;
 
       // http://www.starcraftai.com/wiki/Chance_to_Hit
       if ((agent.elevationLevel >= 0 && agent.elevationLevel < target.elevationLevel)
@@ -59,10 +81,18 @@ public class AgentUtil {
       remainingDamage = remainingDamage * 255 / 256;
     }
 
-    applyDamage(target, wpn.damageType, remainingDamage, wpn.hits);
+    return remainingDamage;
+  }
+
+  static void applyDamage(Agent target, Weapon weapon, int damage) {
+    applyDamage(target, weapon.damageTypeIndex, damage, weapon.hits);
   }
 
   public static void applyDamage(Agent target, DamageType damageType, int damage, int hits) {
+    applyDamage(target, DamageTable.damageTypeIndex(damageType), damage, hits);
+  }
+
+  private static void applyDamage(Agent target, int damageTypeIndex, int damage, int hits) {
     int shields = min(target.maxShieldsShifted, target.shieldsShifted) - damage + target.shieldUpgrades;
     if (shields > 0) {
       target.shieldsShifted = shields;
@@ -76,28 +106,16 @@ public class AgentUtil {
       return;
     }
     damage =
-        reduceDamageByTargetSizeAndDamageType(
-            target, damageType, damage - target.armorShifted * hits);
+        DamageTable.reduce(
+            damage - target.armorShifted * hits, damageTypeIndex + target.type.sizeIndex);
 
     target.consumeHealth(max(128, damage));
   }
 
   public static int reduceDamageByTargetSizeAndDamageType(
       Agent target, DamageType damageType, int damageShifted) {
-    if (damageType == DamageType.CONCUSSIVE) {
-      if (target.size == UnitSize.MEDIUM) {
-        damageShifted /= 2;
-      } else if (target.size == UnitSize.LARGE) {
-        damageShifted /= 4;
-      }
-    } else if (damageType == DamageType.EXPLOSIVE) {
-      if (target.size == UnitSize.SMALL) {
-        damageShifted /= 2;
-      } else if (target.size == UnitSize.MEDIUM) {
-        damageShifted /= 4;
-      }
-    }
-    return damageShifted;
+    return DamageTable.reduce(
+        damageShifted, DamageTable.damageTypeIndex(damageType) + target.type.sizeIndex);
   }
 
   /**
@@ -8,6 +8,11 @@ import static org.bk.ass.sim.AttackerBehavior.*;
 public class ApproxAttackBehavior implements Behavior {
     @Override
     public boolean simUnit(int frameSkip, Agent agent, UnorderedCollection<Agent> allies, UnorderedCollection<Agent> enemies) {
+        return simUnit(frameSkip, agent, allies, enemies, SimulationContext.standalone());
+    }
+
+    @Override
+    public boolean simUnit(int frameSkip, Agent agent, UnorderedCollection<Agent> allies, UnorderedCollection<Agent> enemies, SimulationContext context) {
         int i = enemies.size() - 1;
         while (agent.cooldown <= 0 && i >= 0) {
             Agent enemy = enemies.get(i);
@@ -19,9 +24,9 @@ public class ApproxAttackBehavior implements Behavior {
                 if (agent.canStim
                         && agent.remainingStimFrames <= 0
                         && agent.healthShifted >= agent.maxHealthShifted / 2) {
-                    agent.stim();
+                    context.stim(agent);
                 }
-                attack(agent, wpn, enemy, allies, enemies);
+                attack(agent, wpn, enemy, allies, enemies, context);
             } else
                 i--;
         }
@@ -30,23 +35,11 @@ public class ApproxAttackBehavior implements Behavior {
     }
 
     public static void attack(Agent agent, Weapon weapon, Agent enemy, UnorderedCollection<Agent> allies, UnorderedCollection<Agent> enemies) {
-        AgentUtil.dealDamage(agent, weapon, enemy);
-        switch (weapon.splashType) {
-            case BOUNCE:
-                dealBounceDamage(weapon, enemy, enemies);
-                break;
-            case RADIAL_SPLASH:
-                dealRadialSplashDamage(weapon, enemy, allies, enemies);
-                break;
-            case RADIAL_ENEMY_SPLASH:
-                dealRadialSplashDamage(weapon, enemy, enemies);
-                break;
-            case LINE_SPLASH:
-                dealLineSplashDamage(agent, weapon, enemy, enemies);
-                break;
-            default:
-                // No splash
-        }
+        attack(agent, weapon, enemy, allies, enemies, null);
+    }
+
+    private static void attack(Agent agent, Weapon weapon, Agent enemy, UnorderedCollection<Agent> allies, UnorderedCollection<Agent> enemies, SimulationContext context) {
+        dealAllDamage(agent, weapon, enemy, allies, enemies, context);
 
         if (agent.remainingStimFrames <= 0)
             agent.cooldown += agent.maxCooldown;
@@ -3,12 +3,28 @@ package org.bk.ass.sim;
 import org.bk.ass.collection.UnorderedCollection;
 import org.bk.ass.sim.Simulator.Behavior;
 
+import java.util.function.BiPredicate;
+
 import static java.lang.Math.abs;
 import static java.lang.Math.sqrt;
 import static org.bk.ass.sim.AgentUtil.*;
 import static org.bk.ass.sim.RetreatBehavior.simFlee;
 
 public class AttackerBehavior implements Behavior {
+  private static final BiPredicate<Agent, Agent> HIGHEST_PRIORITY_TARGET =
+      (agent, enemy) -> {
+        Weapon wpn = agent.weaponVs(enemy);
+        return enemy.healthShifted > 0
+            && wpn.damageShifted != 0
+            && enemy.detected
+            && !enemy.isStasised
+            && enemy.attackTargetPriority == Agent.TargetingPriority.HIGHEST
+            && distanceSquared(agent, enemy) >= wpn.minRangeSquared;
+      };
+  private static final BiPredicate<Agent, Agent> HIGHEST_PRIORITY_TARGET_IN_RANGE =
+      (agent, enemy) ->
+          HIGHEST_PRIORITY_TARGET.test(agent, enemy)
+              && distanceSquared(agent, enemy) <= agent.weaponVs(enemy).maxRangeSquared;
 
   @Override
   public boolean simUnit(
@@ -16,15 +32,30 @@ public class AttackerBehavior implements Behavior {
       Agent agent,
       UnorderedCollection<Agent> allies,
       UnorderedCollection<Agent> enemies) {
-    if (agent.cooldown > agent.maxCooldown - agent.stopFrames) {
+    return simUnit(frameSkip, agent, allies, enemies, SimulationContext.standalone());
+  }
+
+  @Override
+  public boolean simUnit(
+      int frameSkip,
+      Agent agent,
+      UnorderedCollection<Agent> allies,
+      UnorderedCollection<Agent> enemies,
+      SimulationContext context) {
+    if (agent.cooldown > agent.maxCooldown - agent.type.stopFrames) {
       return true;
     }
 
     Agent selectedEnemy = null;
     Weapon selectedWeapon = null;
     int selectedDistanceSquared = Integer.MAX_VALUE;
+    // Only reported if metrics are collected
+    int scanned = 0;
+    int distances = 0;
+    int gridQueries = 0;
 
     if (agent.attackTarget != null && agent.attackTarget.healthShifted > 0) {
+      distances++;
       int dstSq = distanceSquared(agent, agent.attackTarget);
       selectedWeapon = agent.weaponVs(agent.attackTarget);
       if (dstSq >= selectedWeapon.minRangeSquared && dstSq <= selectedWeapon.maxRangeSquared) {
@@ -33,8 +64,28 @@ public class AttackerBehavior implements Behavior {
       }
     }
 
+    if (selectedEnemy == null && context.useGrid(enemies)) {
+      gridQueries++;
+      if (!context.enemyGrid.anyWithin(
+          agent,
+          Math.max(agent.airWeapon.maxRange, agent.groundWeapon.maxRange),
+          HIGHEST_PRIORITY_TARGET_IN_RANGE)) {
+        // Nothing to hit this frame, so the search would select the closest enemy
+        gridQueries++;
+        selectedEnemy =
+            context.enemyGrid.nearest(agent, agent.attackTarget, HIGHEST_PRIORITY_TARGET);
+        if (selectedEnemy != null) {
+          distances++;
+          selectedWeapon = agent.weaponVs(selectedEnemy);
+          selectedDistanceSquared = distanceSquared(agent, selectedEnemy);
+        }
+      }
+    }
+
+    // Lower priority targets are only checked here
     if (selectedEnemy == null) {
       for (int i = enemies.size() - 1; i >= 0; i--) {
+        scanned++;
         Agent enemy = enemies.get(i);
         Weapon wpn = agent.weaponVs(enemy);
         int prioCmp =
@@ -46,6 +97,7 @@ public class AttackerBehavior implements Behavior {
             && enemy.detected
             && !enemy.isStasised
             && prioCmp >= 0) {
+          distances++;
           int distanceSq = distanceSquared(agent, enemy);
           if (distanceSq >= wpn.minRangeSquared
               && (distanceSq < selectedDistanceSquared || prioCmp > 0)) {
@@ -63,23 +115,30 @@ public class AttackerBehavior implements Behavior {
       }
     }
     agent.attackTarget = selectedEnemy;
+    SimulatorMetrics metrics = context.metrics;
+    if (metrics != null) {
+      metrics.targetScanIterations += scanned;
+      metrics.distanceComputations += distances;
+      metrics.gridQueries += gridQueries;
+    }
 
     if (selectedEnemy == null) {
-      return !agent.burrowed && simFlee(frameSkip, agent, enemies);
+      return !agent.burrowed && simFlee(frameSkip, agent, enemies, context);
     }
 
     if (!agent.burrowed) {
-      simCombatMove(frameSkip, agent, selectedEnemy, selectedDistanceSquared, selectedWeapon);
+      simCombatMove(
+          frameSkip, agent, selectedEnemy, selectedDistanceSquared, selectedWeapon, context);
     }
 
-    if (agent.burrowedAttacker != agent.burrowed) {
+    if (agent.isBurrowedAttacker() != agent.burrowed) {
       return false;
     }
 
     if (agent.cooldown <= 0
         && selectedDistanceSquared
             <= Math.max(Simulator.MIN_SIMULATION_RANGE, selectedWeapon.maxRangeSquared)) {
-      simAttack(agent, allies, enemies, selectedEnemy, selectedWeapon);
+      simAttack(agent, allies, enemies, selectedEnemy, selectedWeapon, context);
     }
 
     return true;
@@ -90,38 +149,92 @@ public class AttackerBehavior implements Behavior {
       UnorderedCollection<Agent> allies,
       UnorderedCollection<Agent> enemies,
       Agent selectedEnemy,
-      Weapon selectedWeapon) {
+      Weapon selectedWeapon,
+      SimulationContext context) {
     if (agent.canStim
         && agent.remainingStimFrames <= 0
         && agent.healthShifted >= agent.maxHealthShifted / 2) {
-      agent.stim();
+      context.stim(agent);
     }
 
-    attack(agent, selectedWeapon, selectedEnemy, allies, enemies);
+    attack(agent, selectedWeapon, selectedEnemy, allies, enemies, context);
   }
 
   public static void attack(Agent agent, Weapon weapon, Agent selectedEnemy, UnorderedCollection<Agent> allies, UnorderedCollection<Agent> enemies) {
-    dealDamage(agent, weapon, selectedEnemy);
+    attack(agent, weapon, selectedEnemy, allies, enemies, null);
+  }
+
+  static void attack(
+      Agent agent,
+      Weapon weapon,
+      Agent selectedEnemy,
+      UnorderedCollection<Agent> allies,
+      UnorderedCollection<Agent> enemies,
+      SimulationContext context) {
+    dealAllDamage(agent, weapon, selectedEnemy, allies, enemies, context);
+    agent.cooldown = agent.maxCooldown;
+    if (agent.remainingStimFrames > 0) {
+      agent.cooldown /= 2;
+    }
+  }
+
+  /**
+   * Deals the damage of one attack, including splash damage. If a context is given, its grids are
+   * used to find splash targets and the damage is applied by it (see {@link
+   * SimulationContext#damage(int, Agent, Agent, Weapon, int)}).
+   */
+  static void dealAllDamage(
+      Agent agent,
+      Weapon weapon,
+      Agent selectedEnemy,
+      UnorderedCollection<Agent> allies,
+      UnorderedCollection<Agent> enemies,
+      SimulationContext context) {
+    hit(
+        context,
+        SimulationRecorder.ATTACK,
+        agent,
+        selectedEnemy,
+        weapon,
+        damageVs(agent, weapon, selectedEnemy));
     switch (weapon.splashType) {
       case BOUNCE:
-        dealBounceDamage(weapon, selectedEnemy, enemies);
+        dealBounceDamage(agent, weapon, selectedEnemy, enemies, context);
         break;
       case RADIAL_SPLASH:
-        dealRadialSplashDamage(weapon, selectedEnemy, allies, enemies);
+        dealRadialSplashDamage(
+            agent,
+            weapon,
+            selectedEnemy,
+            splashCandidates(allies, selectedEnemy, weapon.splashRadius, context, true),
+            context);
+        dealRadialSplashDamage(
+            agent,
+            weapon,
+            selectedEnemy,
+            splashCandidates(enemies, selectedEnemy, weapon.splashRadius, context, false),
+            context);
         break;
       case RADIAL_ENEMY_SPLASH:
-        dealRadialSplashDamage(weapon, selectedEnemy, enemies);
+        dealRadialSplashDamage(
+            agent,
+            weapon,
+            selectedEnemy,
+            splashCandidates(enemies, selectedEnemy, weapon.splashRadius, context, false),
+            context);
         break;
       case LINE_SPLASH:
-        dealLineSplashDamage(agent, weapon, selectedEnemy, enemies);
+        dealLineSplashDamage(
+            agent,
+            weapon,
+            selectedEnemy,
+            splashCandidates(
+                enemies, agent, weapon.maxRange + weapon.innerSplashRadius, context, false),
+            context);
         break;
       default:
         // No splash
     }
-    agent.cooldown = agent.maxCooldown;
-    if (agent.remainingStimFrames > 0) {
-      agent.cooldown /= 2;
-    }
   }
 
   /**
@@ -132,31 +245,36 @@ public class AttackerBehavior implements Behavior {
           Agent mainTarget,
           UnorderedCollection<Agent> allies,
           UnorderedCollection<Agent> enemies) {
-    for (int i = allies.size() - 1; i >= 0; i--) {
-      Agent ally = allies.get(i);
-      applySplashDamage(weapon, mainTarget, ally);
-    }
-    for (int i = enemies.size() - 1; i >= 0; i--) {
-      Agent enemy = enemies.get(i);
-      applySplashDamage(weapon, mainTarget, enemy);
-    }
+    dealRadialSplashDamage(null, weapon, mainTarget, allies, null);
+    dealRadialSplashDamage(null, weapon, mainTarget, enemies, null);
   }
 
-  private static void applySplashDamage(Weapon weapon, Agent mainTarget, Agent splashTarget) {
-    if (splashTarget == mainTarget || splashTarget.isFlyer != mainTarget.isFlyer) {
+  private static void applySplashDamage(
+      Agent source,
+      Weapon weapon,
+      Agent mainTarget,
+      Agent splashTarget,
+      SimulationContext context) {
+    if (splashTarget == mainTarget || splashTarget.isFlyer() != mainTarget.isFlyer()) {
       return;
     }
 
     int distanceSquared = distanceSquared(splashTarget, mainTarget);
+    int damage;
     if (distanceSquared <= weapon.innerSplashRadiusSquared) {
-      applyDamage(splashTarget, weapon.damageType, weapon.damageShifted, weapon.hits);
+      damage = weapon.damageShifted;
     } else if (!splashTarget.burrowed) {
       if (distanceSquared <= weapon.medianSplashRadiusSquared) {
-        applyDamage(splashTarget, weapon.damageType, weapon.damageShifted / 2, weapon.hits);
+        damage = weapon.damageShifted / 2;
       } else if (distanceSquared <= weapon.outerSplashRadiusSquared) {
-        applyDamage(splashTarget, weapon.damageType, weapon.damageShifted / 4, weapon.hits);
+        damage = weapon.damageShifted / 4;
+      } else {
+        return;
       }
+    } else {
+      return;
     }
+    hit(context, SimulationRecorder.SPLASH, source, splashTarget, weapon, damage);
   }
 
   /**
@@ -164,14 +282,66 @@ public class AttackerBehavior implements Behavior {
    */
   public static void dealRadialSplashDamage(
           Weapon weapon, Agent mainTarget, UnorderedCollection<Agent> enemies) {
-    for (int i = enemies.size() - 1; i >= 0; i--) {
-      Agent enemy = enemies.get(i);
-      applySplashDamage(weapon, mainTarget, enemy);
+    dealRadialSplashDamage(null, weapon, mainTarget, enemies, null);
+  }
+
+  private static void dealRadialSplashDamage(
+      Agent source,
+      Weapon weapon,
+      Agent mainTarget,
+      UnorderedCollection<Agent> targets,
+      SimulationContext context) {
+    for (int i = targets.size() - 1; i >= 0; i--) {
+      Agent target = targets.get(i);
+      applySplashDamage(source, weapon, mainTarget, target, context);
+    }
+  }
+
+  /**
+   * Returns the agents which might be within the given radius around the center. With only a few
+   * agents or without a context, these are all agents, otherwise the grid of the context is
+   * queried.
+   */
+  private static UnorderedCollection<Agent> splashCandidates(
+      UnorderedCollection<Agent> agents,
+      Agent center,
+      int radius,
+      SimulationContext context,
+      boolean allies) {
+    if (context == null || !context.useGrid(agents)) {
+      return agents;
+    }
+    (allies ? context.allyGrid : context.enemyGrid)
+        .query(center.x, center.y, radius, context.splashTargets);
+    return context.splashTargets;
+  }
+
+  /** Without a context, the damage is applied immediately and not recorded. */
+  private static void hit(
+      SimulationContext context,
+      int type,
+      Agent source,
+      Agent target,
+      Weapon weapon,
+      int damage) {
+    if (context != null) {
+      context.damage(type, source, target, weapon, damage);
+    } else if (damage >= 0) {
+      applyDamage(target, weapon, damage);
     }
   }
 
   public static void dealLineSplashDamage(
           Agent source, Weapon weapon, Agent mainTarget, UnorderedCollection<Agent> enemies) {
+    dealLineSplashDamage(source, weapon, mainTarget, enemies, null);
+  }
+
+  private static void dealLineSplashDamage(
+      Agent source,
+      Weapon weapon,
+      Agent mainTarget,
+      UnorderedCollection<Agent> enemies,
+      SimulationContext context) {
     int dx = mainTarget.x - source.x;
     int dy = mainTarget.y - source.y;
     // Same spot, chose "random" direction
@@ -185,7 +355,7 @@ public class AttackerBehavior implements Behavior {
                     + weapon.innerSplashRadiusSquared;
     for (int i = enemies.size() - 1; i >= 0; i--) {
       Agent enemy = enemies.get(i);
-      if (enemy == mainTarget || enemy.isFlyer != mainTarget.isFlyer) {
+      if (enemy == mainTarget || enemy.isFlyer() != mainTarget.isFlyer()) {
         continue;
       }
       int enemyDistSq = distanceSquared(enemy, source);
@@ -196,7 +366,7 @@ public class AttackerBehavior implements Behavior {
           int projdy = source.y + dot * dy / dxDistSq - enemy.y;
           int projDistSq = projdx * projdx + projdy * projdy;
           if (projDistSq <= weapon.innerSplashRadiusSquared) {
-            applyDamage(enemy, weapon.damageType, weapon.damageShifted, weapon.hits);
+            hit(context, SimulationRecorder.SPLASH, source, enemy, weapon, weapon.damageShifted);
           }
         }
       }
@@ -205,6 +375,15 @@ public class AttackerBehavior implements Behavior {
 
   public static void dealBounceDamage(
           Weapon weapon, Agent lastTarget, UnorderedCollection<Agent> enemies) {
+    dealBounceDamage(null, weapon, lastTarget, enemies, null);
+  }
+
+  private static void dealBounceDamage(
+      Agent source,
+      Weapon weapon,
+      Agent lastTarget,
+      UnorderedCollection<Agent> enemies,
+      SimulationContext context) {
     int remainingBounces = 2;
     int damage = weapon.damageShifted / 3;
     for (int i = enemies.size() - 1; i >= 0 && remainingBounces > 0; i--) {
@@ -214,7 +393,7 @@ public class AttackerBehavior implements Behavior {
               && abs(enemy.x - lastTarget.x) <= 96
               && abs(enemy.y - lastTarget.y) <= 96) {
         lastTarget = enemy;
-        applyDamage(enemy, weapon.damageType, damage, weapon.hits);
+        hit(context, SimulationRecorder.SPLASH, source, enemy, weapon, damage);
         damage /= 3;
         remainingBounces--;
       }
@@ -227,16 +406,17 @@ public class AttackerBehavior implements Behavior {
       Agent agent,
       Agent selectedEnemy,
       int selectedDistanceSquared,
-      Weapon selectedWeapon) {
+      Weapon selectedWeapon,
+      SimulationContext context) {
     boolean shouldKite =
-        agent.isKiter
+        agent.isKiter()
             && agent.cooldown > 0
             && selectedEnemy.weaponVs(agent).minRangeSquared <= selectedDistanceSquared
             && selectedEnemy.speed < agent.speed;
     float distance = (float) sqrt(selectedDistanceSquared);
     if (shouldKite) {
       if (distance + agent.speed * frameSkip <= selectedWeapon.maxRange) {
-        moveAwayFrom(frameSkip, agent, selectedEnemy, distance);
+        moveAwayFrom(frameSkip, agent, selectedEnemy, distance, context.random);
       }
     } else {
       moveToward(frameSkip, agent, selectedEnemy, distance);
@@ -7,6 +7,8 @@ import org.openbw.bwapi4j.type.*;
 import org.openbw.bwapi4j.unit.*;
 
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.EnumSet;
 import java.util.function.BiConsumer;
 
@@ -35,6 +37,8 @@ public class BWAPI4JAgentFactory {
       };
 
   private final BWMap map;
+  // Agents with all values derived from the unit type and upgrades, copied for each new agent
+  private final Map<PrototypeKey, Agent> prototypes = new ConcurrentHashMap<>();
 
   public BWAPI4JAgentFactory(BWMap map) {
     this.map = map;
@@ -77,6 +81,37 @@ public class BWAPI4JAgentFactory {
       int airWeaponRangeUpgrade,
       boolean speedUpgrade,
       boolean energyUpgrade) {
+    Agent prototype =
+        prototypes.computeIfAbsent(
+            new PrototypeKey(
+                unitType,
+                groundWeaponUpgrades,
+                airWeaponUpgrades,
+                groundWeaponRangeUpgrade,
+                airWeaponRangeUpgrade,
+                speedUpgrade,
+                energyUpgrade),
+            key ->
+                createPrototype(
+                    unitType,
+                    groundWeaponUpgrades,
+                    airWeaponUpgrades,
+                    groundWeaponRangeUpgrade,
+                    airWeaponRangeUpgrade,
+                    speedUpgrade,
+                    energyUpgrade));
+    // Weapons are shared with the prototype
+    return new Agent(prototype);
+  }
+
+  private Agent createPrototype(
+      UnitType unitType,
+      int groundWeaponUpgrades,
+      int airWeaponUpgrades,
+      int groundWeaponRangeUpgrade,
+      int airWeaponRangeUpgrade,
+      boolean speedUpgrade,
+      boolean energyUpgrade) {
     int rangeExtension = 0;
     int hitsFactor = 1;
     WeaponType airWeapon = unitType.airWeapon();
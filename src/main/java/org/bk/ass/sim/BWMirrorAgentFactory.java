@@ -4,6 +4,8 @@ import bwapi.*;
 import org.bk.ass.info.BWMirrorUnitInfo;
 
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.EnumSet;
 import java.util.Set;
 import java.util.function.BiConsumer;
@@ -39,6 +41,8 @@ public class BWMirrorAgentFactory {
       };
 
   private final Game game;
+  // Agents with all values derived from the unit type and upgrades, copied for each new agent
+  private final Map<PrototypeKey, Agent> prototypes = new ConcurrentHashMap<>();
 
   public BWMirrorAgentFactory(Game game) {
     this.game = game;
@@ -81,6 +85,37 @@ public class BWMirrorAgentFactory {
       int airWeaponRangeUpgrade,
       boolean speedUpgrade,
       boolean energyUpgrade) {
+    Agent prototype =
+        prototypes.computeIfAbsent(
+            new PrototypeKey(
+                unitType,
+                groundWeaponUpgrades,
+                airWeaponUpgrades,
+                groundWeaponRangeUpgrade,
+                airWeaponRangeUpgrade,
+                speedUpgrade,
+                energyUpgrade),
+            key ->
+                createPrototype(
+                    unitType,
+                    groundWeaponUpgrades,
+                    airWeaponUpgrades,
+                    groundWeaponRangeUpgrade,
+                    airWeaponRangeUpgrade,
+                    speedUpgrade,
+                    energyUpgrade));
+    // Weapons are shared with the prototype
+    return new Agent(prototype);
+  }
+
+  private Agent createPrototype(
+      UnitType unitType,
+      int groundWeaponUpgrades,
+      int airWeaponUpgrades,
+      int groundWeaponRangeUpgrade,
+      int airWeaponRangeUpgrade,
+      boolean speedUpgrade,
+      boolean energyUpgrade) {
     int rangeExtension = 0;
     int hitsFactor = 1;
     WeaponType airWeapon = unitType.airWeapon();
@@ -0,0 +1,241 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.cluster.Cluster;
+import org.bk.ass.cluster.StableDBScanner;
+import org.bk.ass.path.Position;
+import org.bk.ass.query.PositionQueries;
+import org.bk.ass.sim.Simulator.IntEvaluation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToIntFunction;
+
+import static java.lang.Math.max;
+import static org.bk.ass.sim.AgentUtil.distanceSquared;
+
+/**
+ * Splits all agents of a battlefield into engagements, which can't interact with each other within
+ * the simulated frames, and simulates each engagement with its own {@link Simulator}. Armies on
+ * opposite sides of the map then no longer need to be checked against each other by the
+ * behaviors.
+ *
+ * <p>Two agents (of any player) are put into the same engagement if they are closer than the sum
+ * of their reach. The reach of an agent is its maximum weapon (or heal/repair) range plus splash
+ * radius, plus the distance it can move in the simulated frames. Engagements are found with a
+ * {@link StableDBScanner} on {@link PositionQueries} of all agents.
+ *
+ * <p>Like the {@link Simulator}, the given agents are modified by the simulation.
+ */
+public class BattlefieldSimulator {
+  // A bounce can travel 96 pixels in x and y direction, twice
+  private static final int BOUNCE_REACH = 272;
+  private static final int MIN_SIMULATION_REACH = (int) Math.sqrt(Simulator.MIN_SIMULATION_RANGE);
+
+  private final Simulator.Builder simulatorBuilder;
+  private final ForkJoinPool pool;
+  private final int frames;
+
+  private BattlefieldSimulator(Builder builder) {
+    simulatorBuilder = builder.simulatorBuilder;
+    pool = builder.pool;
+    frames = builder.frames;
+  }
+
+  /**
+   * Splits the given agents into engagements and simulates all of them.
+   *
+   * @param agentEval the evaluation used to determine the outcome of each engagement
+   */
+  public Result simulate(
+      Collection<Agent> agentsA, Collection<Agent> agentsB, ToIntFunction<Agent> agentEval) {
+    List<Engagement> engagements = split(agentsA, agentsB);
+    SimulationBatch batch = pool != null ? new SimulationBatch(pool) : null;
+    for (Engagement engagement : engagements) {
+      engagement.before = engagement.simulator.evalToInt(agentEval);
+      if (engagement.simulator.getAgentsA().isEmpty()
+          || engagement.simulator.getAgentsB().isEmpty()) {
+        // Nothing will happen
+        engagement.after = engagement.before;
+      } else if (batch != null) {
+        batch.add(engagement.simulator);
+      } else {
+        engagement.simulator.simulate(frames);
+      }
+    }
+    if (batch != null) {
+      batch.simulate(frames);
+    }
+    int beforeA = 0;
+    int beforeB = 0;
+    int afterA = 0;
+    int afterB = 0;
+    for (Engagement engagement : engagements) {
+      if (engagement.after == null) {
+        engagement.after = engagement.simulator.evalToInt(agentEval);
+      }
+      beforeA += engagement.before.evalA;
+      beforeB += engagement.before.evalB;
+      afterA += engagement.after.evalA;
+      afterB += engagement.after.evalB;
+    }
+    return new Result(
+        new IntEvaluation(beforeA, beforeB), new IntEvaluation(afterA, afterB), engagements);
+  }
+
+  /** Splits the given agents into engagements, without simulating them. */
+  public List<Engagement> split(Collection<Agent> agentsA, Collection<Agent> agentsB) {
+    List<Agent> agents = new ArrayList<>(agentsA.size() + agentsB.size());
+    agents.addAll(agentsA);
+    agents.addAll(agentsB);
+    if (agents.isEmpty()) {
+      return Collections.emptyList();
+    }
+    Set<Agent> playerA = Collections.newSetFromMap(new IdentityHashMap<>());
+    playerA.addAll(agentsA);
+    int maxReach = 0;
+    for (Agent agent : agents) {
+      maxReach = max(maxReach, reach(agent));
+    }
+    PositionQueries<Agent> positionQueries =
+        new PositionQueries<>(agents, agent -> new Position(agent.x, agent.y));
+    int queryRadius = maxReach * 2;
+    StableDBScanner<Agent> scanner =
+        new StableDBScanner<>(
+                agents,
+                1,
+                agent -> {
+                  int reach = reach(agent);
+                  return positionQueries.inRadius(
+                      agent,
+                      queryRadius,
+                      other -> {
+                        int interactionRange = reach + reach(other);
+                        return distanceSquared(agent, other)
+                            <= interactionRange * interactionRange;
+                      });
+                })
+            .scan(-1);
+
+    // Agents are added in the given order, to keep simulations reproducible
+    List<Engagement> engagements = new ArrayList<>();
+    Map<Cluster<Agent>, Simulator> simulators = new IdentityHashMap<>();
+    for (Agent agent : agents) {
+      Simulator simulator =
+          simulators.computeIfAbsent(
+              scanner.getClusterOf(agent),
+              cluster -> {
+                Simulator newSimulator = simulatorBuilder.build();
+                engagements.add(new Engagement(newSimulator));
+                return newSimulator;
+              });
+      if (playerA.contains(agent)) {
+        simulator.addAgentA(agent);
+      } else {
+        simulator.addAgentB(agent);
+      }
+    }
+    return engagements;
+  }
+
+  private int reach(Agent agent) {
+    int range =
+        max(weaponReach(agent.groundWeapon), weaponReach(agent.airWeapon)) + MIN_SIMULATION_REACH;
+    if (agent.isHealer()) {
+      range = max(range, HealerBehavior.MEDICS_HEAL_RANGE);
+    }
+    if (agent.isRepairer()) {
+      range = max(range, RepairerBehavior.SCV_REPAIR_RANGE);
+    }
+    return range + (int) Math.ceil(agent.speed * frames);
+  }
+
+  private static int weaponReach(Weapon weapon) {
+    if (weapon.damageShifted == 0) {
+      return 0;
+    }
+    return weapon.maxRange
+        + (weapon.splashType == SplashType.BOUNCE ? BOUNCE_REACH : weapon.splashRadius);
+  }
+
+  /** One group of agents, which was simulated separately. */
+  public static class Engagement {
+    private final Simulator simulator;
+    private IntEvaluation before;
+    private IntEvaluation after;
+
+    Engagement(Simulator simulator) {
+      this.simulator = simulator;
+    }
+
+    public Simulator getSimulator() {
+      return simulator;
+    }
+
+    /** @return the evaluation before simulating, null if not simulated */
+    public IntEvaluation getBefore() {
+      return before;
+    }
+
+    /** @return the evaluation after simulating, null if not simulated */
+    public IntEvaluation getAfter() {
+      return after;
+    }
+  }
+
+  public static class Result {
+    /** Sum of the evaluations of all engagements before simulating. */
+    public final IntEvaluation before;
+    /** Sum of the evaluations of all engagements after simulating. */
+    public final IntEvaluation after;
+
+    private final List<Engagement> engagements;
+
+    Result(IntEvaluation before, IntEvaluation after, List<Engagement> engagements) {
+      this.before = before;
+      this.after = after;
+      this.engagements = engagements;
+    }
+
+    public List<Engagement> getEngagements() {
+      return Collections.unmodifiableList(engagements);
+    }
+  }
+
+  public static final class Builder {
+    private Simulator.Builder simulatorBuilder = new Simulator.Builder();
+    private ForkJoinPool pool;
+    private int frames = 96;
+
+    /** Used to create one simulator per engagement. */
+    public Builder withSimulatorBuilder(Simulator.Builder simulatorBuilder) {
+      this.simulatorBuilder = simulatorBuilder;
+      return this;
+    }
+
+    /** Simulates the engagements in parallel, using the given pool (see {@link SimulationBatch}). */
+    public Builder withPool(ForkJoinPool pool) {
+      this.pool = pool;
+      return this;
+    }
+
+    /**
+     * Frames to simulate, see {@link Simulator#simulate(int)}. Agents are only split into
+     * engagements which can't interact within that many frames.
+     */
+    public Builder withFrames(int frames) {
+      this.frames = frames;
+      return this;
+    }
+
+    public BattlefieldSimulator build() {
+      if (frames < 1) throw new IllegalArgumentException("frames must be >= 1");
+      return new BattlefieldSimulator(this);
+    }
+  }
+}
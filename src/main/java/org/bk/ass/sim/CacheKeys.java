@@ -0,0 +1,122 @@
+package org.bk.ass.sim;
+
+/**
+ * Builds the keys of {@link SimulationCache} from the keys of single agents, independent of the
+ * order of the agents. The keys of all agents are written into one reused buffer, only their order
+ * is sorted. So building a key does not allocate once the buffers are large enough.
+ *
+ * <p>Usage: {@link #reset(int)}, write the key of each agent at {@link #add()}, {@link #sort()} and
+ * copy the sorted keys with {@link #copySorted(int[], int)}.
+ */
+final class CacheKeys {
+  // Below this, rows are sorted by insertion sort
+  private static final int INSERTION_SORT_THRESHOLD = 16;
+
+  private final int keySize;
+  private int[] values = new int[0];
+  private int[] order = new int[0];
+  private int[] merge = new int[0];
+  private int size;
+
+  /** @param keySize the number of values per agent */
+  CacheKeys(int keySize) {
+    this.keySize = keySize;
+  }
+
+  /** Removes all keys and makes room for the keys of the given number of agents. */
+  void reset(int agents) {
+    if (order.length < agents) {
+      values = new int[agents * keySize];
+      order = new int[agents];
+      merge = new int[agents];
+    }
+    size = 0;
+  }
+
+  /**
+   * Adds the key of one more agent.
+   *
+   * @return the offset in {@link #values()} where the caller has to write the key
+   */
+  int add() {
+    order[size] = size;
+    return size++ * keySize;
+  }
+
+  /** The buffer holding the keys of all agents, in the order they were added. */
+  int[] values() {
+    return values;
+  }
+
+  /** @return the number of added keys */
+  int size() {
+    return size;
+  }
+
+  /** @return the index (in the order they were added) of the i-th key after {@link #sort()} */
+  int sortedIndex(int i) {
+    return order[i];
+  }
+
+  /** Sorts the keys lexicographically. Equal keys stay in the order they were added. */
+  void sort() {
+    sort(0, size);
+  }
+
+  /**
+   * Copies the sorted keys into data.
+   *
+   * @return the offset in data after the copied keys
+   */
+  int copySorted(int[] data, int offset) {
+    for (int i = 0; i < size; i++) {
+      System.arraycopy(values, order[i] * keySize, data, offset, keySize);
+      offset += keySize;
+    }
+    return offset;
+  }
+
+  // Stable merge sort of order[from, to)
+  private void sort(int from, int to) {
+    if (to - from <= INSERTION_SORT_THRESHOLD) {
+      for (int i = from + 1; i < to; i++) {
+        int row = order[i];
+        int j = i - 1;
+        while (j >= from && compare(order[j], row) > 0) {
+          order[j + 1] = order[j];
+          j--;
+        }
+        order[j + 1] = row;
+      }
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    sort(from, mid);
+    sort(mid, to);
+    if (compare(order[mid - 1], order[mid]) <= 0) {
+      return;
+    }
+    System.arraycopy(order, from, merge, from, to - from);
+    int left = from;
+    int right = mid;
+    for (int i = from; i < to; i++) {
+      if (right >= to || left < mid && compare(merge[left], merge[right]) <= 0) {
+        order[i] = merge[left++];
+      } else {
+        order[i] = merge[right++];
+      }
+    }
+  }
+
+  private int compare(int rowA, int rowB) {
+    int a = rowA * keySize;
+    int b = rowB * keySize;
+    for (int i = 0; i < keySize; i++) {
+      int cmp = Integer.compare(values[a + i], values[b + i]);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,22 @@
+package org.bk.ass.sim;
+
+/**
+ * Counts the ground agents on each tile of the map, used by the {@link Simulator} to prevent too
+ * many agents being stacked. Tiles are 16 pixels wide, the index of a tile is <code>ty * 512 + tx
+ * </code>.
+ *
+ * @see ArrayCollisionMap
+ * @see SparseCollisionMap
+ */
+public interface CollisionMap {
+  /** @return the number of ground agents on the given tile */
+  int get(int tile);
+
+  void increment(int tile);
+
+  /** Does nothing if there are no ground agents on the given tile. */
+  void decrement(int tile);
+
+  /** Sets the count of all tiles to 0. */
+  void clear();
+}
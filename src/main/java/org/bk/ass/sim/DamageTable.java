@@ -0,0 +1,47 @@
+package org.bk.ass.sim;
+
+/**
+ * Lookup table for the damage reduction by damage type and target size. Weapons and agents store
+ * their index into the table when the damage type (resp. size) is set, so applying damage does not
+ * need to branch on either.
+ */
+final class DamageTable {
+  private static final int SIZES = UnitSize.values().length;
+  static final int CONCUSSIVE = DamageType.CONCUSSIVE.ordinal() * SIZES;
+  static final int EXPLOSIVE = DamageType.EXPLOSIVE.ordinal() * SIZES;
+  static final int NO_DAMAGE_TYPE = DamageType.IRRELEVANT.ordinal() * SIZES;
+  static final int NO_SIZE = UnitSize.IRRELEVANT.ordinal();
+
+  // Damage is divided by 2^shift
+  private static final int[] SHIFTS = new int[DamageType.values().length * SIZES];
+
+  static {
+    SHIFTS[CONCUSSIVE + UnitSize.MEDIUM.ordinal()] = 1;
+    SHIFTS[CONCUSSIVE + UnitSize.LARGE.ordinal()] = 2;
+    SHIFTS[EXPLOSIVE + UnitSize.SMALL.ordinal()] = 1;
+    SHIFTS[EXPLOSIVE + UnitSize.MEDIUM.ordinal()] = 2;
+  }
+
+  private DamageTable() {
+    // Utility class
+  }
+
+  static int damageTypeIndex(DamageType damageType) {
+    return damageType == null ? NO_DAMAGE_TYPE : damageType.ordinal() * SIZES;
+  }
+
+  static int sizeIndex(UnitSize size) {
+    return size == null ? NO_SIZE : size.ordinal();
+  }
+
+  /**
+   * Same as dividing the damage by 1, 2 or 4 depending on the damage type and size (rounding
+   * towards 0).
+   *
+   * @param index sum of the damage type index and the size index
+   */
+  static int reduce(int damageShifted, int index) {
+    int shift = SHIFTS[index];
+    return (damageShifted + ((damageShifted >> 31) & ((1 << shift) - 1))) >> shift;
+  }
+}
@@ -1,8 +1,15 @@
 package org.bk.ass.sim;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static java.lang.Math.max;
 
@@ -29,59 +36,392 @@ public class Evaluator {
    *     obliterated.
    */
   public double evaluate(Collection<Agent> agentsA, Collection<Agent> agentsB) {
+    return evaluate(agentsA, agentsB, new EvaluationContext());
+  }
+
+  /**
+   * Same as {@link #evaluate(Collection, Collection)}, but reuses the given context. Once the
+   * context is warmed up, no objects are allocated by the evaluation.
+   *
+   * @param context created by {@link #newContext()} of this evaluator, must only be used by one
+   *     thread at a time
+   */
+  public double evaluate(
+      Collection<Agent> agentsA, Collection<Agent> agentsB, EvaluationContext context) {
+    if (context.evaluator() != this) {
+      throw new IllegalArgumentException("Context must be created by this evaluator");
+    }
+    if (agentsA.isEmpty() && agentsB.isEmpty()) return 0.5;
+    if (agentsA.isEmpty()) return 0.0;
+    if (agentsB.isEmpty()) return 1.0;
+    double result =
+        evaluate(context.agentsA.prepare(agentsA), context.agentsB.prepare(agentsB));
+    // Don't keep references to the agents
+    context.agentsA.clear();
+    context.agentsB.clear();
+    return result;
+  }
+
+  /**
+   * Creates a context to be used with {@link #evaluate(Collection, Collection,
+   * EvaluationContext)}.
+   */
+  public EvaluationContext newContext() {
+    return new EvaluationContext();
+  }
+
+  /**
+   * Creates a session to evaluate agents which are added and removed one by one, see {@link
+   * EvaluationSession}.
+   */
+  public EvaluationSession newSession() {
+    return new EvaluationSession();
+  }
+
+  /**
+   * Prepares the agents of one side (ie. the enemy), to evaluate many different agents against them
+   * without recalculating their damage and health each time. The agents must not be modified while
+   * the prepared agents are in use.
+   */
+  public PreparedAgents prepare(Collection<Agent> agents) {
+    return new PreparedAgents().prepare(agents);
+  }
+
+  /**
+   * Same as {@link #evaluate(Collection, Collection)}, but uses agents prepared by this evaluator
+   * for side B.
+   */
+  public double evaluate(Collection<Agent> agentsA, PreparedAgents agentsB) {
+    if (agentsB.evaluator() != this) {
+      throw new IllegalArgumentException("Agents must be prepared by this evaluator");
+    }
+    return evaluate(agentsA, agentsB, new PreparedAgents());
+  }
+
+  private double evaluate(
+      Collection<Agent> agentsA, PreparedAgents agentsB, PreparedAgents bufferA) {
     if (agentsA.isEmpty() && agentsB.isEmpty()) return 0.5;
     if (agentsA.isEmpty()) return 0.0;
     if (agentsB.isEmpty()) return 1.0;
-    List<Agent> finalAgentsA = new ArrayList<>();
-    agentsA.forEach(a -> a.onDeathHandler.accept(a, finalAgentsA));
-    List<Agent> finalAgentsB = new ArrayList<>();
-    agentsB.forEach(a -> a.onDeathHandler.accept(a, finalAgentsB));
-    finalAgentsA.addAll(agentsA);
-    finalAgentsB.addAll(agentsB);
-    double damageToA = new DamageBoard(finalAgentsB).sumDamageTo(finalAgentsA);
-    double damageToB = new DamageBoard(finalAgentsA).sumDamageTo(finalAgentsB);
-
-    int regenToA = regeneration(finalAgentsA);
-    int regenToB = regeneration(finalAgentsB);
-    damageToA -= regenToA;
+    double result = evaluate(bufferA.prepare(agentsA), agentsB);
+    bufferA.clear();
+    return result;
+  }
+
+  /**
+   * Evaluates each candidate for side A against the same agents of side B in parallel, ie. to
+   * compare different compositions. The agents of side B are only prepared once.
+   *
+   * @return the evaluation of each candidate, see {@link #evaluate(Collection, Collection)}
+   */
+  public double[] evaluateAll(
+      List<? extends Collection<Agent>> candidatesA, Collection<Agent> agentsB, ForkJoinPool pool) {
+    double[] result = new double[candidatesA.size()];
+    pool.invoke(new EvaluateAction(candidatesA, prepare(agentsB), result, 0, result.length));
+    return result;
+  }
+
+  /**
+   * Uses the common pool to evaluate the candidates, see {@link #evaluateAll(List, Collection,
+   * ForkJoinPool)}.
+   */
+  public double[] evaluateAll(
+      List<? extends Collection<Agent>> candidatesA, Collection<Agent> agentsB) {
+    return evaluateAll(candidatesA, agentsB, ForkJoinPool.commonPool());
+  }
+
+  private double evaluate(PreparedAgents a, PreparedAgents b) {
+    double damageToA = b.damageBoard.sumDamageTo(a);
+    double damageToB = a.damageBoard.sumDamageTo(b);
+
+    damageToA -= a.regeneration;
     if (damageToA < 0) {
       damageToA = 0;
     }
-    damageToB -= regenToB;
+    damageToB -= b.regeneration;
     if (damageToB < 0) {
       damageToB = 0;
     }
-    double evalA =
-            damageToA / (finalAgentsA.stream()
-                    .mapToDouble(a -> a.getHealth() + a.getShields() * parameters.shieldScale)
-                    .sum()
-                + EPS);
-    double evalB =
-            damageToB / (finalAgentsB.stream()
-                    .mapToDouble(a -> a.getHealth() + a.getShields() * parameters.shieldScale)
-                    .sum()
-                + EPS);
+    double evalA = damageToA / (a.health + EPS);
+    double evalB = damageToB / (b.health + EPS);
     // eval is a rough estimate on how many units where lost.
     // Directly comparing is bad since one might have lost more agents than he had.
     // So we just multiply with the enemy count and compare that instead.
-    evalB *= finalAgentsA.size();
-    evalA *= finalAgentsB.size();
+    evalB *= a.count;
+    evalA *= b.count;
     return (evalB + EPS / 2) / (evalA + evalB + EPS);
   }
 
-  private int regeneration(Collection<Agent> agents) {
-    // Subtract 1 to prevent counting selfheal
-    int healables = (int) (agents.stream().filter(it -> it.isOrganic).count() - 1);
-    return agents.stream()
-        .mapToInt(
-            a -> {
-              int healed = 0;
-              if (a.isHealer) {
-                healed += healables * parameters.heal;
-              }
-              return healed;
-            })
-        .sum();
+  /** Agents of one side, including the agents spawned on their death, and their combined stats. */
+  public final class PreparedAgents {
+    private final List<Agent> agents = new ArrayList<>();
+    private final DamageBoard damageBoard = new DamageBoard();
+    // Running sums of all added agents
+    private int count;
+    private int healthSum;
+    private int shieldsSum;
+    private int organics;
+    private int healers;
+    private double health;
+    private int regeneration;
+    // Detected agents grouped by the stats relevant for damage taken
+    private boolean[] groupIsFlyer = new boolean[4];
+    private int[] groupArmorShifted = new int[4];
+    private int[] groupSizeIndex = new int[4];
+    private int[] groupCount = new int[4];
+    private int groups;
+
+    private PreparedAgents() {}
+
+    /** Replaces the prepared agents with the given agents, reusing all buffers. */
+    @SuppressWarnings("unchecked")
+    private PreparedAgents prepare(Collection<Agent> source) {
+      clear();
+      // Avoid iterators for lists
+      if (source instanceof List && source instanceof RandomAccess) {
+        List<Agent> list = (List<Agent>) source;
+        for (int i = 0; i < list.size(); i++) {
+          addDeathHandlerAgents(list.get(i));
+        }
+        for (int i = 0; i < list.size(); i++) {
+          agents.add(list.get(i));
+        }
+      } else {
+        for (Agent agent : source) {
+          addDeathHandlerAgents(agent);
+        }
+        agents.addAll(source);
+      }
+      for (int i = 0; i < agents.size(); i++) {
+        add(agents.get(i), 1);
+      }
+      // Only the sums are needed, don't keep the agents alive while prepared agents are kept
+      agents.clear();
+      updateTotals();
+      return this;
+    }
+
+    /** Adds (sign 1) or removes (sign -1) the stats of the agent to the running sums. */
+    private void add(Agent agent, int sign) {
+      damageBoard.add(agent, sign);
+      if (agent.detected) {
+        addToGroup(agent, sign);
+      }
+      count += sign;
+      healthSum += sign * agent.getHealth();
+      shieldsSum += sign * agent.getShields();
+      if (agent.isOrganic()) {
+        organics += sign;
+      }
+      if (agent.isHealer()) {
+        healers += sign;
+      }
+    }
+
+    private void updateTotals() {
+      health = healthSum + shieldsSum * parameters.shieldScale;
+      // Subtract 1 to prevent counting selfheal
+      regeneration = healers * (int) ((organics - 1) * parameters.heal);
+    }
+
+    private void addDeathHandlerAgents(Agent agent) {
+      if (agent.onDeathHandler != Agent.NO_DEATH_HANDLER) {
+        agent.onDeathHandler.accept(agent, agents);
+      }
+    }
+
+    private void clear() {
+      agents.clear();
+      damageBoard.clear();
+      groups = 0;
+      count = 0;
+      healthSum = 0;
+      shieldsSum = 0;
+      organics = 0;
+      healers = 0;
+    }
+
+    private void addToGroup(Agent agent, int amount) {
+      for (int i = 0; i < groups; i++) {
+        if (groupIsFlyer[i] == agent.isFlyer()
+            && groupArmorShifted[i] == agent.armorShifted
+            && groupSizeIndex[i] == agent.type.sizeIndex) {
+          groupCount[i] += amount;
+          return;
+        }
+      }
+      if (groups == groupCount.length) {
+        groupIsFlyer = Arrays.copyOf(groupIsFlyer, groups * 2);
+        groupArmorShifted = Arrays.copyOf(groupArmorShifted, groups * 2);
+        groupSizeIndex = Arrays.copyOf(groupSizeIndex, groups * 2);
+        groupCount = Arrays.copyOf(groupCount, groups * 2);
+      }
+      groupIsFlyer[groups] = agent.isFlyer();
+      groupArmorShifted[groups] = agent.armorShifted;
+      groupSizeIndex[groups] = agent.type.sizeIndex;
+      groupCount[groups] = amount;
+      groups++;
+    }
+
+    private Evaluator evaluator() {
+      return Evaluator.this;
+    }
+
+    public boolean isEmpty() {
+      return count == 0;
+    }
+  }
+
+  /**
+   * Reusable buffers for evaluations, see {@link #evaluate(Collection, Collection,
+   * EvaluationContext)}. Not thread-safe.
+   */
+  public final class EvaluationContext {
+    private final PreparedAgents agentsA = new PreparedAgents();
+    private final PreparedAgents agentsB = new PreparedAgents();
+
+    private EvaluationContext() {}
+
+    private Evaluator evaluator() {
+      return Evaluator.this;
+    }
+  }
+
+  /**
+   * Keeps the combined stats of agents of both sides, which are updated whenever an agent is added
+   * or removed. Each update and evaluation takes constant time (apart from a few agent groups), ie.
+   * to answer "what if I build one more unit" in a planning loop. Evaluates exactly like {@link
+   * Evaluator#evaluate(Collection, Collection)} with the agents currently in the session.
+   *
+   * <p>Agents must not be modified while they are part of the session, remove and add them again
+   * instead. Not thread-safe.
+   */
+  public final class EvaluationSession {
+    private final PreparedAgents agentsA = new PreparedAgents();
+    private final PreparedAgents agentsB = new PreparedAgents();
+    // Agents spawned on the death of each added agent, which are part of the sums as well
+    private final Map<Agent, List<Agent>> membersA = new IdentityHashMap<>();
+    private final Map<Agent, List<Agent>> membersB = new IdentityHashMap<>();
+
+    private EvaluationSession() {}
+
+    /** @return false, if the agent was already added to side A */
+    public boolean addA(Agent agent) {
+      return add(agent, membersA, agentsA);
+    }
+
+    /** @return false, if the agent was already added to side B */
+    public boolean addB(Agent agent) {
+      return add(agent, membersB, agentsB);
+    }
+
+    /** @return false, if the agent was not added to side A */
+    public boolean removeA(Agent agent) {
+      return remove(agent, membersA, agentsA);
+    }
+
+    /** @return false, if the agent was not added to side B */
+    public boolean removeB(Agent agent) {
+      return remove(agent, membersB, agentsB);
+    }
+
+    private boolean add(Agent agent, Map<Agent, List<Agent>> members, PreparedAgents prepared) {
+      if (members.containsKey(agent)) {
+        return false;
+      }
+      List<Agent> spawned = Collections.emptyList();
+      if (agent.onDeathHandler != Agent.NO_DEATH_HANDLER) {
+        spawned = new ArrayList<>();
+        agent.onDeathHandler.accept(agent, spawned);
+        for (int i = 0; i < spawned.size(); i++) {
+          prepared.add(spawned.get(i), 1);
+        }
+      }
+      members.put(agent, spawned);
+      prepared.add(agent, 1);
+      return true;
+    }
+
+    private boolean remove(Agent agent, Map<Agent, List<Agent>> members, PreparedAgents prepared) {
+      List<Agent> spawned = members.remove(agent);
+      if (spawned == null) {
+        return false;
+      }
+      for (int i = 0; i < spawned.size(); i++) {
+        prepared.add(spawned.get(i), -1);
+      }
+      prepared.add(agent, -1);
+      return true;
+    }
+
+    /**
+     * @return the evaluation of the current agents, see {@link Evaluator#evaluate(Collection,
+     *     Collection)}
+     */
+    public double evaluate() {
+      if (membersA.isEmpty() && membersB.isEmpty()) return 0.5;
+      if (membersA.isEmpty()) return 0.0;
+      if (membersB.isEmpty()) return 1.0;
+      agentsA.updateTotals();
+      agentsB.updateTotals();
+      return Evaluator.this.evaluate(agentsA, agentsB);
+    }
+
+    /** @return the number of agents added to side A */
+    public int sizeA() {
+      return membersA.size();
+    }
+
+    /** @return the number of agents added to side B */
+    public int sizeB() {
+      return membersB.size();
+    }
+
+    /** Removes all agents of both sides. */
+    public void clear() {
+      membersA.clear();
+      membersB.clear();
+      agentsA.clear();
+      agentsB.clear();
+    }
+  }
+
+  private class EvaluateAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int THRESHOLD = 16;
+    private final List<? extends Collection<Agent>> candidatesA;
+    private final PreparedAgents agentsB;
+    private final double[] result;
+    private final int from;
+    private final int to;
+
+    EvaluateAction(
+        List<? extends Collection<Agent>> candidatesA,
+        PreparedAgents agentsB,
+        double[] result,
+        int from,
+        int to) {
+      this.candidatesA = candidatesA;
+      this.agentsB = agentsB;
+      this.result = result;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= THRESHOLD) {
+        PreparedAgents bufferA = new PreparedAgents();
+        for (int i = from; i < to; i++) {
+          result[i] = evaluate(candidatesA.get(i), agentsB, bufferA);
+        }
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(
+            new EvaluateAction(candidatesA, agentsB, result, from, mid),
+            new EvaluateAction(candidatesA, agentsB, result, mid, to));
+      }
+    }
   }
 
   private class DamageBoard {
@@ -99,46 +439,62 @@ public class Evaluator {
     private int groundExplosiveHits;
     private int groundNormalHits;
 
-    DamageBoard(Collection<Agent> attackers) {
-      for (Agent agent : attackers) {
-        sumAirDamage(agent);
-        sumGroundDamage(agent);
-      }
+    /** Adds (sign 1) or removes (sign -1) the damage of the attacker. */
+    void add(Agent attacker, int sign) {
+      sumAirDamage(attacker, sign);
+      sumGroundDamage(attacker, sign);
     }
 
-    private void sumGroundDamage(Agent agent) {
+    void clear() {
+      airDamageNormal = 0;
+      airConcussiveDamage = 0;
+      airExplosiveDamage = 0;
+      airConcussiveHits = 0;
+      airExplosiveHits = 0;
+      airNormalHits = 0;
+      groundDamageNormal = 0;
+      groundConcussiveDamage = 0;
+      groundExplosiveDamage = 0;
+      groundConcussiveHits = 0;
+      groundExplosiveHits = 0;
+      groundNormalHits = 0;
+    }
+
+    private void sumGroundDamage(Agent agent, int sign) {
       Weapon weapon = agent.groundWeapon;
-      double damageToApply = calculateDamage(agent, weapon);
+      int damageToApply = sign * (int) calculateDamage(agent, weapon);
+      int hits = sign * weapon.hits;
       if (weapon.damageType == DamageType.CONCUSSIVE) {
-        groundConcussiveHits += weapon.hits;
-        groundConcussiveDamage += (int) damageToApply;
+        groundConcussiveHits += hits;
+        groundConcussiveDamage += damageToApply;
       } else if (weapon.damageType == DamageType.EXPLOSIVE) {
-        groundExplosiveHits += weapon.hits;
-        groundExplosiveDamage += (int) damageToApply;
+        groundExplosiveHits += hits;
+        groundExplosiveDamage += damageToApply;
       } else {
-        groundNormalHits += weapon.hits;
-        groundDamageNormal += (int) damageToApply;
+        groundNormalHits += hits;
+        groundDamageNormal += damageToApply;
       }
     }
 
-    private void sumAirDamage(Agent agent) {
+    private void sumAirDamage(Agent agent, int sign) {
       Weapon weapon = agent.airWeapon;
-      double damageToApply = calculateDamage(agent, weapon);
+      int damageToApply = sign * (int) calculateDamage(agent, weapon);
+      int hits = sign * weapon.hits;
       if (weapon.damageType == DamageType.CONCUSSIVE) {
-        airConcussiveDamage += (int) damageToApply;
-        airConcussiveHits += weapon.hits;
+        airConcussiveDamage += damageToApply;
+        airConcussiveHits += hits;
       } else if (weapon.damageType == DamageType.EXPLOSIVE) {
-        airExplosiveDamage += (int) damageToApply;
-        airExplosiveHits += weapon.hits;
+        airExplosiveDamage += damageToApply;
+        airExplosiveHits += hits;
       } else {
-        airDamageNormal += (int) damageToApply;
-        airNormalHits += weapon.hits;
+        airDamageNormal += damageToApply;
+        airNormalHits += hits;
       }
     }
 
     private double calculateDamage(Agent attacker, Weapon weapon) {
       double rangeFactor = weapon.maxRange * parameters.rangeScale;
-      double speedFactor = attacker.burrowedAttacker ? 0.0 : attacker.speed * parameters.speedScale;
+      double speedFactor = attacker.isBurrowedAttacker() ? 0.0 : attacker.speed * parameters.speedScale;
       double radialSplashFactor = weapon.splashType == SplashType.RADIAL_ENEMY_SPLASH || weapon.splashType == SplashType.RADIAL_SPLASH ? parameters.radialSplashScale * weapon.innerSplashRadius : 0.0;
       double lineSplashFactor = weapon.splashType == SplashType.LINE_SPLASH ? parameters.lineSplashScale * weapon.innerSplashRadius : 0.0;
       double bounceSplashFactor = weapon.splashType == SplashType.BOUNCE ? parameters.bounceSplashFactor : 0.0;
@@ -148,16 +504,17 @@ public class Evaluator {
           / attacker.maxCooldown;
     }
 
-    double sumDamageTo(Collection<Agent> targets) {
+    double sumDamageTo(PreparedAgents targets) {
       double damageSum = 0;
-      for (Agent target : targets) {
-        if (!target.detected) {
-          continue;
-        }
-        if (target.isFlyer) {
-          damageSum +=
+      for (int i = 0; i < targets.groups; i++) {
+        int armorShifted = targets.groupArmorShifted[i];
+        int sizeIndex = targets.groupSizeIndex[i];
+        int damage;
+        if (targets.groupIsFlyer[i]) {
+          damage =
               damageTakenBy(
-                  target,
+                  armorShifted,
+                  sizeIndex,
                   airConcussiveDamage,
                   airConcussiveHits,
                   airExplosiveDamage,
@@ -165,9 +522,10 @@ public class Evaluator {
                   airDamageNormal,
                   airNormalHits);
         } else {
-          damageSum +=
+          damage =
               damageTakenBy(
-                  target,
+                  armorShifted,
+                  sizeIndex,
                   groundConcussiveDamage,
                   groundConcussiveHits,
                   groundExplosiveDamage,
@@ -175,12 +533,15 @@ public class Evaluator {
                   groundDamageNormal,
                   groundNormalHits);
         }
+        // Summing up each agent's damage would be equivalent, the damage is always an int
+        damageSum += (double) damage * targets.groupCount[i];
       }
       return damageSum;
     }
 
     private int damageTakenBy(
-        Agent target,
+        int armorShifted,
+        int sizeIndex,
         int concussiveDamage,
         int concussiveHits,
         int explosiveDamage,
@@ -189,19 +550,17 @@ public class Evaluator {
         int normalHits) {
       int damage =
           max(
-              AgentUtil.reduceDamageByTargetSizeAndDamageType(
-                  target,
-                  DamageType.CONCUSSIVE,
-                  concussiveDamage - concussiveHits * target.armorShifted),
+              DamageTable.reduce(
+                  concussiveDamage - concussiveHits * armorShifted,
+                  DamageTable.CONCUSSIVE + sizeIndex),
               concussiveHits * 128);
       damage +=
           max(
-              AgentUtil.reduceDamageByTargetSizeAndDamageType(
-                  target,
-                  DamageType.EXPLOSIVE,
-                  explosiveDamage - explosiveHits * target.armorShifted),
+              DamageTable.reduce(
+                  explosiveDamage - explosiveHits * armorShifted,
+                  DamageTable.EXPLOSIVE + sizeIndex),
               explosiveHits * 128);
-      damage += max(normalDamage - normalHits * target.armorShifted, normalHits * 128);
+      damage += max(normalDamage - normalHits * armorShifted, normalHits * 128);
       return damage;
     }
   }
@@ -3,26 +3,53 @@ package org.bk.ass.sim;
 import org.bk.ass.collection.UnorderedCollection;
 import org.bk.ass.sim.Simulator.Behavior;
 
+import java.util.function.BiPredicate;
+
 import static org.bk.ass.sim.AgentUtil.distanceSquared;
 import static org.bk.ass.sim.AgentUtil.moveToward;
 
 public class HealerBehavior implements Behavior {
 
   // Retrieved from OpenBW
-  public static final int MEDICS_HEAL_RANGE_SQUARED = 30 * 30;
+  public static final int MEDICS_HEAL_RANGE = 30;
+  public static final int MEDICS_HEAL_RANGE_SQUARED = MEDICS_HEAL_RANGE * MEDICS_HEAL_RANGE;
+  private static final BiPredicate<Agent, Agent> RESTORABLE =
+      (agent, ally) ->
+          ally.isOrganic()
+              && !ally.isStasised
+              && ally.healthShifted < ally.maxHealthShifted
+              && !agent.healedThisFrame;
 
   @Override
   public boolean simUnit(
-          int frameSkip, Agent agent, UnorderedCollection<Agent> allies, UnorderedCollection<Agent> enemies) {
+          int frameSkip,
+          Agent agent,
+          UnorderedCollection<Agent> allies,
+          UnorderedCollection<Agent> enemies) {
+    return simUnit(frameSkip, agent, allies, enemies, SimulationContext.standalone());
+  }
+
+  @Override
+  public boolean simUnit(
+          int frameSkip,
+          Agent agent,
+          UnorderedCollection<Agent> allies,
+          UnorderedCollection<Agent> enemies,
+          SimulationContext context) {
     if (agent.energyShifted < 256) {
       return true;
     }
     Agent selectedAlly = null;
     int selectedDistanceSquared = Integer.MAX_VALUE;
+    // Only reported if metrics are collected
+    int scanned = 0;
+    int distances = 0;
+    int gridQueries = 0;
 
     if (agent.restoreTarget != null
         && !agent.restoreTarget.healedThisFrame
         && agent.healthShifted < agent.maxHealthShifted) {
+      distances++;
       int dstSq = distanceSquared(agent, agent.restoreTarget);
       if (dstSq <= MEDICS_HEAL_RANGE_SQUARED) {
         selectedAlly = agent.restoreTarget;
@@ -31,28 +58,48 @@ public class HealerBehavior implements Behavior {
     }
 
     if (selectedAlly == null) {
-      for (int i = allies.size() - 1; i >= 0; i--) {
-        Agent ally = allies.get(i);
-        if (ally.isOrganic
-            && !ally.isStasised
-            && ally.healthShifted < ally.maxHealthShifted
-            && !agent.healedThisFrame
-            && ally != agent) {
+      if (!context.useGrid(allies)
+          || context.allyGrid.anyWithin(agent, MEDICS_HEAL_RANGE, RESTORABLE)) {
+        gridQueries = context.useGrid(allies) ? 1 : 0;
+        for (int i = allies.size() - 1; i >= 0; i--) {
+          scanned++;
+          Agent ally = allies.get(i);
+          if (ally.isOrganic()
+              && !ally.isStasised
+              && ally.healthShifted < ally.maxHealthShifted
+              && !agent.healedThisFrame
+              && ally != agent) {
 
-          int distanceSq = distanceSquared(agent, ally);
-          if (distanceSq < selectedDistanceSquared) {
-            selectedDistanceSquared = distanceSq;
-            selectedAlly = ally;
+            distances++;
+            int distanceSq = distanceSquared(agent, ally);
+            if (distanceSq < selectedDistanceSquared) {
+              selectedDistanceSquared = distanceSq;
+              selectedAlly = ally;
 
-            // If we can heal it this frame, we're done searching
-            if (selectedDistanceSquared <= MEDICS_HEAL_RANGE_SQUARED) {
-              break;
+              // If we can heal it this frame, we're done searching
+              if (selectedDistanceSquared <= MEDICS_HEAL_RANGE_SQUARED) {
+                break;
+              }
             }
           }
         }
+      } else {
+        // Nothing to heal this frame, so the search would select the closest ally
+        gridQueries = 2;
+        selectedAlly = context.allyGrid.nearest(agent, agent.restoreTarget, RESTORABLE);
+        if (selectedAlly != null) {
+          distances++;
+          selectedDistanceSquared = distanceSquared(agent, selectedAlly);
+        }
       }
     }
     agent.restoreTarget = selectedAlly;
+    SimulatorMetrics metrics = context.metrics;
+    if (metrics != null) {
+      metrics.targetScanIterations += scanned;
+      metrics.distanceComputations += distances;
+      metrics.gridQueries += gridQueries;
+    }
 
     if (selectedAlly == null) {
       return false;
@@ -63,8 +110,7 @@ public class HealerBehavior implements Behavior {
       return true;
     }
     agent.consumeEnergy(256 * frameSkip);
-    selectedAlly.healedThisFrame = true;
-    selectedAlly.heal(150 * frameSkip);
+    context.heal(SimulationRecorder.HEAL, agent, selectedAlly, 150 * frameSkip);
     return true;
   }
 }
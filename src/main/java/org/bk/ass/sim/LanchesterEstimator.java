@@ -0,0 +1,230 @@
+package org.bk.ass.sim;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Estimates the outcome of a fight using Lanchester style attrition equations. Faster than the
+ * {@link Simulator}, but in contrast to the {@link Evaluator} it predicts the remaining agents and
+ * the duration of the fight. Can be used to skip simulating obviously lopsided fights.
+ *
+ * <p>Agents are aggregated by type (ie. their name, see {@link Agent#getName()}) into health and
+ * shield pools. Each frame, each type deals damage according to its weapons and cooldown (see
+ * {@link AgentUtil#dealDamage(Agent, Weapon, Agent)}) to all enemy types it can hit, distributed
+ * by their remaining number of agents. Shields absorb damage first, health takes damage reduced by
+ * armor, size and damage type. The number of agents of a type shrinks with its health pool. The
+ * equations are solved in time steps of multiple frames.
+ *
+ * <p>Positions, movement, splash, healing and regeneration are ignored. Agents with the same name
+ * are assumed to have the same weapons, armor and upgrades.
+ */
+public class LanchesterEstimator {
+  private final int frameStep;
+
+  /** @param frameStep the number of frames of each time step */
+  public LanchesterEstimator(int frameStep) {
+    if (frameStep < 1) throw new IllegalArgumentException("frameStep must be >= 1");
+    this.frameStep = frameStep;
+  }
+
+  public LanchesterEstimator() {
+    this(8);
+  }
+
+  /**
+   * Estimates the fight until one side is eliminated, no side can damage the other anymore, or the
+   * given number of frames has passed.
+   */
+  public Estimate estimate(Collection<Agent> agentsA, Collection<Agent> agentsB, int maxFrames) {
+    List<Group> groupsA = groups(agentsA);
+    List<Group> groupsB = groups(agentsB);
+    double[][] hitsAtoB = attacksPerFrame(groupsA, groupsB);
+    double[][] hitsBtoA = attacksPerFrame(groupsB, groupsA);
+    int frames = 0;
+    while (frames < maxFrames && alive(groupsA) && alive(groupsB)) {
+      int step = min(frameStep, maxFrames - frames);
+      for (Group group : groupsA) group.countAtStepStart = group.count();
+      for (Group group : groupsB) group.countAtStepStart = group.count();
+      boolean damageDealt = attack(groupsA, groupsB, hitsAtoB, step);
+      damageDealt |= attack(groupsB, groupsA, hitsBtoA, step);
+      if (!damageDealt) {
+        break;
+      }
+      frames += step;
+    }
+    return new Estimate(frames, remaining(groupsA), remaining(groupsB));
+  }
+
+  private static List<Group> groups(Collection<Agent> agents) {
+    Map<String, Group> groups = new LinkedHashMap<>();
+    for (Agent agent : agents) {
+      groups.computeIfAbsent(agent.getName(), unused -> new Group(agent)).add(agent);
+    }
+    return new ArrayList<>(groups.values());
+  }
+
+  /**
+   * @return the number of attacks a single agent of each attacker group can make per frame against
+   *     each target group
+   */
+  private static double[][] attacksPerFrame(List<Group> attackers, List<Group> targets) {
+    double[][] result = new double[attackers.size()][targets.size()];
+    for (int i = 0; i < attackers.size(); i++) {
+      Agent attacker = attackers.get(i).prototype;
+      for (int j = 0; j < targets.size(); j++) {
+        Agent target = targets.get(j).prototype;
+        Weapon weapon = attacker.weaponVs(target);
+        if (weapon.damageShifted != 0
+            && attacker.maxCooldown > 0
+            && target.detected
+            && !target.isStasised
+            && !attacker.isStasised
+            && !attacker.isLockeddown) {
+          result[i][j] = 1.0 / attacker.maxCooldown;
+        }
+      }
+    }
+    return result;
+  }
+
+  /** @return true, if any damage was dealt */
+  private static boolean attack(
+      List<Group> attackers, List<Group> targets, double[][] attacksPerFrame, int frames) {
+    boolean damageDealt = false;
+    for (int i = 0; i < attackers.size(); i++) {
+      Group attacker = attackers.get(i);
+      if (attacker.countAtStepStart <= 0) {
+        continue;
+      }
+      double targetCount = 0;
+      for (int j = 0; j < targets.size(); j++) {
+        if (attacksPerFrame[i][j] > 0) {
+          targetCount += targets.get(j).countAtStepStart;
+        }
+      }
+      if (targetCount <= 0) {
+        continue;
+      }
+      for (int j = 0; j < targets.size(); j++) {
+        Group target = targets.get(j);
+        if (attacksPerFrame[i][j] > 0 && target.countAtStepStart > 0) {
+          // Fire is distributed by the number of agents of each target type
+          double attacks =
+              attacker.countAtStepStart
+                  * attacksPerFrame[i][j]
+                  * frames
+                  * target.countAtStepStart
+                  / targetCount;
+          damageDealt |= target.takeHits(attacker.prototype, attacks);
+        }
+      }
+    }
+    return damageDealt;
+  }
+
+  private static boolean alive(List<Group> groups) {
+    for (Group group : groups) {
+      if (group.count() > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Map<String, Double> remaining(List<Group> groups) {
+    Map<String, Double> result = new LinkedHashMap<>();
+    for (Group group : groups) {
+      result.put(group.prototype.getName(), group.count());
+    }
+    return result;
+  }
+
+  /** Agents of one type of one side, with pooled health and shields. */
+  private static class Group {
+    final Agent prototype;
+    int agents;
+    double initialHealth;
+    double health;
+    double shields;
+    double countAtStepStart;
+
+    Group(Agent prototype) {
+      this.prototype = prototype;
+    }
+
+    void add(Agent agent) {
+      agents++;
+      initialHealth += agent.healthShifted;
+      health += agent.healthShifted;
+      shields += min(agent.shieldsShifted, agent.maxShieldsShifted);
+    }
+
+    /** Expected number of agents left, agents die one after another as the health pool drops. */
+    double count() {
+      return initialHealth > 0 ? agents * health / initialHealth : 0;
+    }
+
+    /** @return true, if the hits dealt any damage */
+    boolean takeHits(Agent attacker, double hits) {
+      Weapon weapon = attacker.weaponVs(prototype);
+      int damage = AgentUtil.damageVs(attacker, weapon, prototype);
+      if (damage <= 0 || health <= 0) {
+        return false;
+      }
+      int shieldDamagePerHit = damage - prototype.shieldUpgrades;
+      if (shieldDamagePerHit > 0 && shields > 0) {
+        double shieldHits = min(hits, shields / shieldDamagePerHit);
+        shields -= shieldHits * shieldDamagePerHit;
+        hits -= shieldHits;
+      }
+      // Same as AgentUtil.applyDamage, without shields
+      int healthDamagePerHit =
+          max(
+              128,
+              DamageTable.reduce(
+                  damage - prototype.armorShifted * weapon.hits,
+                  weapon.damageTypeIndex + prototype.type.sizeIndex));
+      health = max(0, health - hits * healthDamagePerHit);
+      return true;
+    }
+  }
+
+  public static class Estimate {
+    /** Estimated duration of the fight in frames. */
+    public final int frames;
+
+    private final Map<String, Double> remainingA;
+    private final Map<String, Double> remainingB;
+
+    Estimate(int frames, Map<String, Double> remainingA, Map<String, Double> remainingB) {
+      this.frames = frames;
+      this.remainingA = remainingA;
+      this.remainingB = remainingB;
+    }
+
+    /** @return the expected number of remaining agents of player A, by name */
+    public Map<String, Double> getRemainingA() {
+      return Collections.unmodifiableMap(remainingA);
+    }
+
+    /** @return the expected number of remaining agents of player B, by name */
+    public Map<String, Double> getRemainingB() {
+      return Collections.unmodifiableMap(remainingB);
+    }
+
+    public double totalRemainingA() {
+      return remainingA.values().stream().mapToDouble(Double::doubleValue).sum();
+    }
+
+    public double totalRemainingB() {
+      return remainingB.values().stream().mapToDouble(Double::doubleValue).sum();
+    }
+  }
+}
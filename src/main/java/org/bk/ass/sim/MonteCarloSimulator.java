@@ -0,0 +1,248 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.sim.Simulator.IntEvaluation;
+
+import java.util.Collection;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToIntFunction;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.sqrt;
+
+/**
+ * Estimates the outcome of a fight by running many {@link Simulator}s in parallel. For each run,
+ * the positions and health of all agents are jittered (ie. because positions of fogged units are
+ * just guesses), and each run uses its own seeded random source. Runs are done in batches until the
+ * confidence interval (Wilson score interval) of the win probability is tight enough, or the
+ * maximum number of runs is reached.
+ *
+ * <p>The outcome of a run is the change of the evaluation delta: {@code after.delta() -
+ * before.delta()}. Player A "wins" a run, if the outcome is positive.
+ */
+public class MonteCarloSimulator {
+  // 95% confidence
+  private static final double Z = 1.96;
+
+  private final Simulator.Builder simulatorBuilder;
+  private final ForkJoinPool pool;
+  private final int frames;
+  private final int positionJitter;
+  private final double healthJitter;
+  private final int minRuns;
+  private final int maxRuns;
+  private final int batchSize;
+  private final double maxWinProbabilityMargin;
+  private final long seed;
+
+  private MonteCarloSimulator(Builder builder) {
+    simulatorBuilder = builder.simulatorBuilder;
+    pool = builder.pool;
+    frames = builder.frames;
+    positionJitter = builder.positionJitter;
+    healthJitter = builder.healthJitter;
+    minRuns = builder.minRuns;
+    maxRuns = builder.maxRuns;
+    batchSize = builder.batchSize;
+    maxWinProbabilityMargin = builder.maxWinProbabilityMargin;
+    seed = builder.seed;
+  }
+
+  /**
+   * Estimates the outcome of a fight between the given agents. The given agents are not modified,
+   * each run uses copies (see {@link Agent#Agent(Agent)}).
+   *
+   * @param agentEval the evaluation used to determine the outcome of each run
+   */
+  public Result estimate(
+      Collection<Agent> agentsA, Collection<Agent> agentsB, ToIntFunction<Agent> agentEval) {
+    SplittableRandom random = new SplittableRandom(seed);
+    SimulationBatch batch = new SimulationBatch(pool);
+    IntEvaluation[] before = new IntEvaluation[batchSize];
+    int runs = 0;
+    int wins = 0;
+    double mean = 0;
+    double sumOfSquares = 0;
+    while (runs < maxRuns) {
+      batch.clear();
+      for (int i = min(batchSize, maxRuns - runs); i > 0; i--) {
+        SplittableRandom runRandom = random.split();
+        Simulator simulator = simulatorBuilder.build(runRandom.nextLong());
+        for (Agent agent : agentsA) {
+          simulator.addAgentA(jitteredCopy(agent, runRandom));
+        }
+        for (Agent agent : agentsB) {
+          simulator.addAgentB(jitteredCopy(agent, runRandom));
+        }
+        before[batch.size()] = simulator.evalToInt(agentEval);
+        batch.add(simulator);
+      }
+      batch.simulate(frames);
+      for (int i = 0; i < batch.size(); i++) {
+        int outcome =
+            batch.getSimulators().get(i).evalToInt(agentEval).delta() - before[i].delta();
+        if (outcome > 0) {
+          wins++;
+        }
+        // Welford's online algorithm
+        runs++;
+        double delta = outcome - mean;
+        mean += delta / runs;
+        sumOfSquares += delta * (outcome - mean);
+      }
+      if (runs >= minRuns
+          && winProbabilityMargin((double) wins / runs, runs) <= maxWinProbabilityMargin) {
+        break;
+      }
+    }
+    batch.clear();
+    return new Result(runs, wins, mean, runs > 1 ? sumOfSquares / (runs - 1) : 0);
+  }
+
+  private Agent jitteredCopy(Agent agent, SplittableRandom random) {
+    Agent copy = new Agent(agent);
+    if (positionJitter > 0) {
+      copy.x = jitter(agent.x, random);
+      copy.y = jitter(agent.y, random);
+    }
+    if (healthJitter > 0) {
+      double factor = 1 + random.nextDouble(-healthJitter, healthJitter);
+      copy.healthShifted =
+          max(1, min(agent.maxHealthShifted, (int) (agent.healthShifted * factor)));
+    }
+    return copy;
+  }
+
+  private int jitter(int position, SplittableRandom random) {
+    return max(
+        0,
+        min(
+            Simulator.MAX_MAP_DIMENSION - 1,
+            position + random.nextInt(-positionJitter, positionJitter + 1)));
+  }
+
+  /**
+   * Half width of the Wilson score interval, which (unlike the normal approximation) does not
+   * collapse to 0 if all or no runs were won.
+   */
+  private static double winProbabilityMargin(double winProbability, int runs) {
+    double zSquared = Z * Z;
+    return Z
+        / (1 + zSquared / runs)
+        * sqrt(winProbability * (1 - winProbability) / runs + zSquared / (4.0 * runs * runs));
+  }
+
+  public static class Result {
+    public final int runs;
+    public final int wins;
+    /** Mean of the outcomes of all runs. */
+    public final double mean;
+    /** Sample variance of the outcomes of all runs. */
+    public final double variance;
+
+    Result(int runs, int wins, double mean, double variance) {
+      this.runs = runs;
+      this.wins = wins;
+      this.mean = mean;
+      this.variance = variance;
+    }
+
+    /** Fraction of runs player A won. */
+    public double winProbability() {
+      return runs == 0 ? 0.5 : (double) wins / runs;
+    }
+
+    /** Half width of the 95% confidence interval of the win probability. */
+    public double winProbabilityMargin() {
+      return runs == 0 ? 0.5 : MonteCarloSimulator.winProbabilityMargin(winProbability(), runs);
+    }
+
+    /** Half width of the 95% confidence interval of the mean outcome. */
+    public double meanMargin() {
+      return runs == 0 ? Double.POSITIVE_INFINITY : Z * sqrt(variance / runs);
+    }
+  }
+
+  public static final class Builder {
+    private Simulator.Builder simulatorBuilder = new Simulator.Builder();
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int frames = 96;
+    private int positionJitter = 32;
+    private double healthJitter = 0.1;
+    private int minRuns = 16;
+    private int maxRuns = 256;
+    private int batchSize = max(1, ForkJoinPool.getCommonPoolParallelism()) * 2;
+    private double maxWinProbabilityMargin = 0.05;
+    private long seed = 1337L;
+
+    /**
+     * Used to create the simulators, its seed is ignored as each run uses its own seed. The builder
+     * is not modified.
+     */
+    public Builder withSimulatorBuilder(Simulator.Builder simulatorBuilder) {
+      this.simulatorBuilder = simulatorBuilder;
+      return this;
+    }
+
+    public Builder withPool(ForkJoinPool pool) {
+      this.pool = pool;
+      batchSize = max(1, pool.getParallelism()) * 2;
+      return this;
+    }
+
+    /** Frames to simulate in each run, see {@link Simulator#simulate(int)}. */
+    public Builder withFrames(int frames) {
+      this.frames = frames;
+      return this;
+    }
+
+    /** Maximum offset in pixels of the x and y position of each agent. */
+    public Builder withPositionJitter(int positionJitter) {
+      this.positionJitter = positionJitter;
+      return this;
+    }
+
+    /** Maximum relative change of the health of each agent (ie. 0.1 =&gt; +-10%). */
+    public Builder withHealthJitter(double healthJitter) {
+      this.healthJitter = healthJitter;
+      return this;
+    }
+
+    public Builder withMinRuns(int minRuns) {
+      this.minRuns = minRuns;
+      return this;
+    }
+
+    public Builder withMaxRuns(int maxRuns) {
+      this.maxRuns = maxRuns;
+      return this;
+    }
+
+    /** Number of runs simulated in parallel before checking if more runs are required. */
+    public Builder withBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Stop once the half width of the 95% confidence interval of the win probability is at most
+     * the given value.
+     */
+    public Builder withMaxWinProbabilityMargin(double maxWinProbabilityMargin) {
+      this.maxWinProbabilityMargin = maxWinProbabilityMargin;
+      return this;
+    }
+
+    public Builder withSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public MonteCarloSimulator build() {
+      if (batchSize < 1) throw new IllegalArgumentException("batchSize must be >= 1");
+      if (minRuns > maxRuns) throw new IllegalArgumentException("minRuns must be <= maxRuns");
+      return new MonteCarloSimulator(this);
+    }
+  }
+}
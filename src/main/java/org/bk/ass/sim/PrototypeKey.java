@@ -0,0 +1,66 @@
+package org.bk.ass.sim;
+
+import java.util.Objects;
+
+/**
+ * Identifies the prototype agent of an agent factory: A unit type of the used API together with
+ * the upgrades which change the values of the agent.
+ */
+final class PrototypeKey {
+  private final Object unitType;
+  private final int groundWeaponUpgrades;
+  private final int airWeaponUpgrades;
+  private final int groundWeaponRangeUpgrade;
+  private final int airWeaponRangeUpgrade;
+  private final boolean speedUpgrade;
+  private final boolean energyUpgrade;
+  private final int hash;
+
+  PrototypeKey(
+      Object unitType,
+      int groundWeaponUpgrades,
+      int airWeaponUpgrades,
+      int groundWeaponRangeUpgrade,
+      int airWeaponRangeUpgrade,
+      boolean speedUpgrade,
+      boolean energyUpgrade) {
+    this.unitType = Objects.requireNonNull(unitType, "unitType must be set");
+    this.groundWeaponUpgrades = groundWeaponUpgrades;
+    this.airWeaponUpgrades = airWeaponUpgrades;
+    this.groundWeaponRangeUpgrade = groundWeaponRangeUpgrade;
+    this.airWeaponRangeUpgrade = airWeaponRangeUpgrade;
+    this.speedUpgrade = speedUpgrade;
+    this.energyUpgrade = energyUpgrade;
+    int result = unitType.hashCode();
+    result = 31 * result + groundWeaponUpgrades;
+    result = 31 * result + airWeaponUpgrades;
+    result = 31 * result + groundWeaponRangeUpgrade;
+    result = 31 * result + airWeaponRangeUpgrade;
+    result = 31 * result + (speedUpgrade ? 1 : 0);
+    this.hash = 31 * result + (energyUpgrade ? 1 : 0);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    PrototypeKey other = (PrototypeKey) o;
+    return hash == other.hash
+        && groundWeaponUpgrades == other.groundWeaponUpgrades
+        && airWeaponUpgrades == other.airWeaponUpgrades
+        && groundWeaponRangeUpgrade == other.groundWeaponRangeUpgrade
+        && airWeaponRangeUpgrade == other.airWeaponRangeUpgrade
+        && speedUpgrade == other.speedUpgrade
+        && energyUpgrade == other.energyUpgrade
+        && unitType.equals(other.unitType);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+}
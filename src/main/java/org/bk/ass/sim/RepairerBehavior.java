@@ -3,6 +3,8 @@ package org.bk.ass.sim;
 import org.bk.ass.collection.UnorderedCollection;
 import org.bk.ass.sim.Simulator.Behavior;
 
+import java.util.function.BiPredicate;
+
 import static java.lang.Math.sqrt;
 import static org.bk.ass.sim.AgentUtil.distanceSquared;
 import static org.bk.ass.sim.AgentUtil.moveToward;
@@ -10,15 +12,39 @@ import static org.bk.ass.sim.AgentUtil.moveToward;
 public class RepairerBehavior implements Behavior {
 
   // Retrieved from OpenBW
-  public static final int SCV_REPAIR_RANGE_SQUARED = 5 * 5;
+  public static final int SCV_REPAIR_RANGE = 5;
+  public static final int SCV_REPAIR_RANGE_SQUARED = SCV_REPAIR_RANGE * SCV_REPAIR_RANGE;
+  private static final BiPredicate<Agent, Agent> RESTORABLE =
+      (agent, ally) ->
+          ally.isMechanic()
+              && !ally.isStasised
+              && ally.healthShifted < ally.maxHealthShifted;
 
   @Override
   public boolean simUnit(
-          int frameSkip, Agent agent, UnorderedCollection<Agent> allies, UnorderedCollection<Agent> enemies) {
+          int frameSkip,
+          Agent agent,
+          UnorderedCollection<Agent> allies,
+          UnorderedCollection<Agent> enemies) {
+    return simUnit(frameSkip, agent, allies, enemies, SimulationContext.standalone());
+  }
+
+  @Override
+  public boolean simUnit(
+          int frameSkip,
+          Agent agent,
+          UnorderedCollection<Agent> allies,
+          UnorderedCollection<Agent> enemies,
+          SimulationContext context) {
     Agent selectedAlly = null;
     int selectedDistanceSquared = Integer.MAX_VALUE;
+    // Only reported if metrics are collected
+    int scanned = 0;
+    int distances = 0;
+    int gridQueries = 0;
 
     if (agent.restoreTarget != null && agent.healthShifted < agent.maxHealthShifted) {
+      distances++;
       int dstSq = distanceSquared(agent, agent.restoreTarget);
       if (dstSq <= SCV_REPAIR_RANGE_SQUARED) {
         selectedAlly = agent.restoreTarget;
@@ -27,27 +53,47 @@ public class RepairerBehavior implements Behavior {
     }
 
     if (selectedAlly == null) {
-      for (int i = allies.size() - 1; i >= 0; i--) {
-        Agent ally = allies.get(i);
-        if (ally.isMechanic
-            && !ally.isStasised
-            && ally.healthShifted < ally.maxHealthShifted
-            && ally != agent) {
+      if (!context.useGrid(allies)
+          || context.allyGrid.anyWithin(agent, SCV_REPAIR_RANGE, RESTORABLE)) {
+        gridQueries = context.useGrid(allies) ? 1 : 0;
+        for (int i = allies.size() - 1; i >= 0; i--) {
+          scanned++;
+          Agent ally = allies.get(i);
+          if (ally.isMechanic()
+              && !ally.isStasised
+              && ally.healthShifted < ally.maxHealthShifted
+              && ally != agent) {
 
-          int distanceSq = distanceSquared(agent, ally);
-          if (distanceSq < selectedDistanceSquared) {
-            selectedDistanceSquared = distanceSq;
-            selectedAlly = ally;
+            distances++;
+            int distanceSq = distanceSquared(agent, ally);
+            if (distanceSq < selectedDistanceSquared) {
+              selectedDistanceSquared = distanceSq;
+              selectedAlly = ally;
 
-            // If we can repair it this frame, we're done searching
-            if (selectedDistanceSquared <= SCV_REPAIR_RANGE_SQUARED) {
-              break;
+              // If we can repair it this frame, we're done searching
+              if (selectedDistanceSquared <= SCV_REPAIR_RANGE_SQUARED) {
+                break;
+              }
             }
           }
         }
+      } else {
+        // Nothing to repair this frame, so the search would select the closest ally
+        gridQueries = 2;
+        selectedAlly = context.allyGrid.nearest(agent, agent.restoreTarget, RESTORABLE);
+        if (selectedAlly != null) {
+          distances++;
+          selectedDistanceSquared = distanceSquared(agent, selectedAlly);
+        }
       }
     }
     agent.restoreTarget = selectedAlly;
+    SimulatorMetrics metrics = context.metrics;
+    if (metrics != null) {
+      metrics.targetScanIterations += scanned;
+      metrics.distanceComputations += distances;
+      metrics.gridQueries += gridQueries;
+    }
 
     if (selectedAlly == null) {
       return false;
@@ -57,7 +103,11 @@ public class RepairerBehavior implements Behavior {
     if (selectedDistanceSquared > SCV_REPAIR_RANGE_SQUARED) {
       return true;
     }
-    selectedAlly.heal(selectedAlly.hpConstructionRate * frameSkip);
+    context.heal(
+        SimulationRecorder.REPAIR,
+        agent,
+        selectedAlly,
+        selectedAlly.hpConstructionRate * frameSkip);
 
     return true;
   }
@@ -3,43 +3,94 @@ package org.bk.ass.sim;
 import org.bk.ass.collection.UnorderedCollection;
 import org.bk.ass.sim.Simulator.Behavior;
 
+import java.util.function.BiPredicate;
+
 import static java.lang.Math.sqrt;
 import static org.bk.ass.sim.AgentUtil.distanceSquared;
 import static org.bk.ass.sim.AgentUtil.moveAwayFrom;
 
 public class RetreatBehavior implements Behavior {
+  private static final BiPredicate<Agent, Agent> THREAT =
+      (agent, enemy) -> {
+        Weapon wpn = enemy.weaponVs(agent);
+        return wpn.damageShifted != 0 && distanceSquared(agent, enemy) >= wpn.minRangeSquared;
+      };
+  private static final BiPredicate<Agent, Agent> THREAT_IN_RANGE =
+      (agent, enemy) ->
+          THREAT.test(agent, enemy)
+              && distanceSquared(agent, enemy) <= enemy.weaponVs(agent).maxRangeSquared;
+
+  @Override
+  public boolean simUnit(
+          int frameSkip,
+          Agent agent,
+          UnorderedCollection<Agent> allies,
+          UnorderedCollection<Agent> enemies) {
+    return simUnit(frameSkip, agent, allies, enemies, SimulationContext.standalone());
+  }
 
   @Override
   public boolean simUnit(
-          int frameSkip, Agent agent, UnorderedCollection<Agent> allies, UnorderedCollection<Agent> enemies) {
-    return simFlee(frameSkip, agent, enemies);
+          int frameSkip,
+          Agent agent,
+          UnorderedCollection<Agent> allies,
+          UnorderedCollection<Agent> enemies,
+          SimulationContext context) {
+    return simFlee(frameSkip, agent, enemies, context);
   }
 
-  static boolean simFlee(int frames, Agent agent, UnorderedCollection<Agent> enemies) {
+  static boolean simFlee(
+      int frames, Agent agent, UnorderedCollection<Agent> enemies, SimulationContext context) {
     if (agent.burrowed || agent.isStasised || agent.isLockeddown) return false;
     Agent selectedEnemy = null;
     int selectedDistanceSquared = Integer.MAX_VALUE;
-    for (int i = enemies.size() - 1; i >= 0; i--) {
-      Agent enemy = enemies.get(i);
-      Weapon wpn = enemy.weaponVs(agent);
-      // Enemy could be dead already, but skipping it generally doesn't make a difference and it will be gone next frame.
-      if (wpn.damageShifted != 0) {
-        int distanceSq = distanceSquared(agent, enemy);
-        if (distanceSq >= wpn.minRangeSquared && distanceSq < selectedDistanceSquared) {
-          selectedDistanceSquared = distanceSq;
-          selectedEnemy = enemy;
-
-          // If the enemy can hit us this frame, we're done searching
-          if (selectedDistanceSquared <= wpn.maxRangeSquared) {
-            break;
+    // Only reported if metrics are collected
+    int scanned = 0;
+    int distances = 0;
+    int gridQueries = 0;
+    AgentGrid enemyGrid = context.enemyGrid;
+    if (!context.useGrid(enemies)
+        || enemyGrid.anyWithin(agent, enemyGrid.getMaxRange(), THREAT_IN_RANGE)) {
+      gridQueries = context.useGrid(enemies) ? 1 : 0;
+      for (int i = enemies.size() - 1; i >= 0; i--) {
+        scanned++;
+        Agent enemy = enemies.get(i);
+        Weapon wpn = enemy.weaponVs(agent);
+        // Enemy could be dead already, but skipping it generally doesn't make a difference and it will be gone next frame.
+        if (wpn.damageShifted != 0) {
+          distances++;
+          int distanceSq = distanceSquared(agent, enemy);
+          if (distanceSq >= wpn.minRangeSquared && distanceSq < selectedDistanceSquared) {
+            selectedDistanceSquared = distanceSq;
+            selectedEnemy = enemy;
+
+            // If the enemy can hit us this frame, we're done searching
+            if (selectedDistanceSquared <= wpn.maxRangeSquared) {
+              break;
+            }
           }
         }
       }
+    } else {
+      // No enemy can hit us this frame, so the search would select the closest one
+      gridQueries = 2;
+      selectedEnemy = enemyGrid.nearest(agent, null, THREAT);
+      if (selectedEnemy != null) {
+        distances++;
+        selectedDistanceSquared = distanceSquared(agent, selectedEnemy);
+      }
+    }
+    SimulatorMetrics metrics = context.metrics;
+    if (metrics != null) {
+      metrics.targetScanIterations += scanned;
+      metrics.distanceComputations += distances;
+      metrics.gridQueries += gridQueries;
     }
     if (selectedEnemy == null) {
       return false;
     }
-    moveAwayFrom(frames, agent, selectedEnemy, (float) sqrt(selectedDistanceSquared));
+    moveAwayFrom(
+        frames, agent, selectedEnemy, (float) sqrt(selectedDistanceSquared), context.random);
     return true;
   }
 }
@@ -0,0 +1,96 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.sim.Simulator.IntEvaluation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Runs many independent {@link Simulator}s (ie. one per army cluster, or attack and retreat
+ * variants of one engagement) in parallel. Each simulator is only used by one thread at a time, so
+ * simulators (and their {@link Agent}s) must not be shared between scenarios of a batch.
+ */
+public class SimulationBatch {
+  private final ForkJoinPool pool;
+  private final List<Simulator> simulators = new ArrayList<>();
+
+  public SimulationBatch(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /** Uses the common pool to run simulations. */
+  public SimulationBatch() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  /** Adds a prepared scenario, the agents should be added before calling simulate. */
+  public SimulationBatch add(Simulator simulator) {
+    simulators.add(simulator);
+    return this;
+  }
+
+  public List<Simulator> getSimulators() {
+    return Collections.unmodifiableList(simulators);
+  }
+
+  public int size() {
+    return simulators.size();
+  }
+
+  /** Removes all scenarios. */
+  public void clear() {
+    simulators.clear();
+  }
+
+  /**
+   * Simulates all scenarios for the given number of frames and blocks until all are done. See
+   * {@link Simulator#simulate(int)}.
+   *
+   * @return the number of frames left after simulating, for each scenario
+   */
+  public int[] simulate(int frames) {
+    int[] framesLeft = new int[simulators.size()];
+    pool.invoke(new SimulateAction(frames, framesLeft, 0, simulators.size()));
+    return framesLeft;
+  }
+
+  /** Evaluates the agents of each scenario, see {@link Simulator#evalToInt(ToIntFunction)}. */
+  public List<IntEvaluation> evalToInt(ToIntFunction<Agent> agentEval) {
+    List<IntEvaluation> result = new ArrayList<>(simulators.size());
+    for (Simulator simulator : simulators) {
+      result.add(simulator.evalToInt(agentEval));
+    }
+    return result;
+  }
+
+  private class SimulateAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int frames;
+    private final int[] framesLeft;
+    private final int from;
+    private final int to;
+
+    SimulateAction(int frames, int[] framesLeft, int from, int to) {
+      this.frames = frames;
+      this.framesLeft = framesLeft;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        framesLeft[from] = simulators.get(from).simulate(frames);
+      } else if (to > from) {
+        int mid = (from + to) >>> 1;
+        invokeAll(
+            new SimulateAction(frames, framesLeft, from, mid),
+            new SimulateAction(frames, framesLeft, mid, to));
+      }
+    }
+  }
+}
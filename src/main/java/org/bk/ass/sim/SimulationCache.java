@@ -0,0 +1,341 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.sim.Simulator.IntEvaluation;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Caches the outcomes of simulations, for engagements which are simulated again and again with
+ * nearly the same agents (ie. every frame). Scenarios are identified by a fingerprint of the agents
+ * of both players and the configuration of the simulator: For each agent its type, upgrades,
+ * weapons, cooldown, quantized health, shields and energy, status effects, death handler and its
+ * quantized position relative to the center of all agents. The order of agents is irrelevant. The
+ * configuration consists of the behaviors, frame skip, approach skipping, collision map type and
+ * whether agents are simulated in parallel.
+ *
+ * <p>On a hit, the simulator is not run and its agents are not modified. The cached outcome of the
+ * first simulation of a scenario is returned, which also repeats its random decisions. The least
+ * recently used outcomes are evicted once the cache is full.
+ *
+ * <p>Building a fingerprint interns the types of the agents (see {@link Agent#getType()}), setters
+ * of agents then replace their types instead of modifying them.
+ *
+ * <p>Not thread-safe, use one cache per thread.
+ */
+public class SimulationCache {
+  // Values stored per agent in a fingerprint
+  private static final int AGENT_FINGERPRINT_SIZE = 26;
+  // Values stored per fingerprint before the agents
+  private static final int HEADER_SIZE = 6;
+  // References stored per fingerprint before the death handlers of the agents
+  private static final int REFERENCES = 4;
+
+  private final int positionQuantum;
+  private final int healthQuantum;
+  private final LinkedHashMap<Fingerprint, Outcome> outcomes;
+  private final CacheKeys keys = new CacheKeys(AGENT_FINGERPRINT_SIZE);
+  private Object[] deathHandlers = new Object[0];
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * @param maxEntries the maximum number of cached outcomes
+   * @param positionQuantum positions closer than this (in pixels) are treated as equal
+   * @param healthQuantum health, shields and energy closer than this are treated as equal
+   */
+  public SimulationCache(int maxEntries, int positionQuantum, int healthQuantum) {
+    if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be >= 1");
+    if (positionQuantum < 1) throw new IllegalArgumentException("positionQuantum must be >= 1");
+    if (healthQuantum < 1) throw new IllegalArgumentException("healthQuantum must be >= 1");
+    this.positionQuantum = positionQuantum;
+    this.healthQuantum = healthQuantum;
+    outcomes =
+        new LinkedHashMap<Fingerprint, Outcome>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Fingerprint, Outcome> eldest) {
+            if (size() > maxEntries) {
+              evictions++;
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  /** Caches up to 1024 outcomes, positions are quantized to 32 pixels and health to 10. */
+  public SimulationCache() {
+    this(1024, 32, 10);
+  }
+
+  /**
+   * Returns the cached outcome of an equivalent scenario, or simulates the agents of the given
+   * simulator (see {@link Simulator#simulate(int)}) and caches the outcome.
+   *
+   * @param agentEval used to evaluate the agents before and after simulating, part of the scenario
+   */
+  public Outcome simulate(Simulator simulator, int frames, ToIntFunction<Agent> agentEval) {
+    Collection<Agent> agentsA = simulator.getAgentsA();
+    Collection<Agent> agentsB = simulator.getAgentsB();
+    Fingerprint fingerprint = fingerprint(simulator, agentsA, agentsB, frames, agentEval);
+    Outcome outcome = outcomes.get(fingerprint);
+    if (outcome != null) {
+      hits++;
+      return outcome;
+    }
+    misses++;
+    IntEvaluation before = simulator.evalToInt(agentEval);
+    int framesLeft = simulator.simulate(frames);
+    outcome =
+        new Outcome(
+            before,
+            simulator.evalToInt(agentEval),
+            framesLeft,
+            survivors(simulator.getAgentsA()),
+            survivors(simulator.getAgentsB()));
+    outcomes.put(fingerprint, outcome);
+    return outcome;
+  }
+
+  private Fingerprint fingerprint(
+      Simulator simulator,
+      Collection<Agent> agentsA,
+      Collection<Agent> agentsB,
+      int frames,
+      ToIntFunction<Agent> agentEval) {
+    long sumX = 0;
+    long sumY = 0;
+    for (Agent agent : agentsA) {
+      sumX += agent.x;
+      sumY += agent.y;
+    }
+    for (Agent agent : agentsB) {
+      sumX += agent.x;
+      sumY += agent.y;
+    }
+    int agents = agentsA.size() + agentsB.size();
+    int centerX = agents > 0 ? (int) (sumX / agents) : 0;
+    int centerY = agents > 0 ? (int) (sumY / agents) : 0;
+
+    int[] data = new int[HEADER_SIZE + agents * AGENT_FINGERPRINT_SIZE];
+    data[0] = frames;
+    data[1] = agentsA.size();
+    data[2] = agentsB.size();
+    data[3] = simulator.frameSkip;
+    data[4] = simulator.skipApproach ? 1 : 0;
+    data[5] = simulator.pool != null ? 1 : 0;
+    Object[] references = new Object[REFERENCES + agents];
+    references[0] = agentEval;
+    references[1] = simulator.playerABehavior;
+    references[2] = simulator.playerBBehavior;
+    references[3] = simulator.collision.getClass();
+    append(data, HEADER_SIZE, references, REFERENCES, agentsA, centerX, centerY);
+    append(
+        data,
+        HEADER_SIZE + agentsA.size() * AGENT_FINGERPRINT_SIZE,
+        references,
+        REFERENCES + agentsA.size(),
+        agentsB,
+        centerX,
+        centerY);
+    return new Fingerprint(data, references);
+  }
+
+  /**
+   * Appends the fingerprints and death handlers of all agents, sorted to be independent of the
+   * order of agents.
+   */
+  private void append(
+      int[] data,
+      int offset,
+      Object[] references,
+      int referenceOffset,
+      Collection<Agent> agents,
+      int centerX,
+      int centerY) {
+    keys.reset(agents.size());
+    if (deathHandlers.length < agents.size()) {
+      deathHandlers = new Object[agents.size()];
+    }
+    int[] values = keys.values();
+    int i = 0;
+    for (Agent agent : agents) {
+      deathHandlers[i++] = agent.onDeathHandler;
+      fingerprint(agent, centerX, centerY, values, keys.add());
+    }
+    keys.sort();
+    keys.copySorted(data, offset);
+    for (i = 0; i < keys.size(); i++) {
+      references[referenceOffset + i] = deathHandlers[keys.sortedIndex(i)];
+    }
+    Arrays.fill(deathHandlers, 0, keys.size(), null);
+  }
+
+  private void fingerprint(Agent agent, int centerX, int centerY, int[] values, int i) {
+    values[i] = agent.sharedType().id;
+    values[i + 1] = agent.armorShifted;
+    values[i + 2] = agent.shieldUpgrades;
+    values[i + 3] = agent.groundWeapon.damageShifted;
+    values[i + 4] = agent.groundWeapon.maxRange;
+    values[i + 5] = agent.groundWeapon.minRangeSquared;
+    values[i + 6] = ordinal(agent.groundWeapon.splashType);
+    values[i + 7] = agent.airWeapon.damageShifted;
+    values[i + 8] = agent.airWeapon.maxRange;
+    values[i + 9] = agent.airWeapon.minRangeSquared;
+    values[i + 10] = ordinal(agent.airWeapon.splashType);
+    values[i + 11] = agent.maxCooldown;
+    values[i + 12] = agent.cooldown;
+    values[i + 13] = agent.remainingStimFrames;
+    values[i + 14] = agent.plagueDamagePerFrameShifted;
+    values[i + 15] = agent.maxHealthShifted;
+    values[i + 16] = agent.maxShieldsShifted;
+    values[i + 17] = Float.floatToIntBits(agent.speed);
+    values[i + 18] = agent.getHealth() / healthQuantum;
+    values[i + 19] = agent.getShields() / healthQuantum;
+    values[i + 20] = (agent.energyShifted >> 8) / healthQuantum;
+    values[i + 21] = Math.floorDiv(agent.x - centerX, positionQuantum);
+    values[i + 22] = Math.floorDiv(agent.y - centerY, positionQuantum);
+    values[i + 23] = agent.elevationLevel;
+    values[i + 24] =
+        (agent.burrowed ? 1 : 0)
+            | (agent.detected ? 2 : 0)
+            | (agent.isStasised ? 4 : 0)
+            | (agent.isLockeddown ? 8 : 0)
+            | (agent.canStim ? 16 : 0)
+            | (agent.protectedByDarkSwarm ? 32 : 0);
+    values[i + 25] = System.identityHashCode(agent.onDeathHandler);
+  }
+
+  private static int ordinal(SplashType splashType) {
+    return splashType != null ? splashType.ordinal() : -1;
+  }
+
+  private static Map<String, Integer> survivors(Collection<Agent> agents) {
+    Map<String, Integer> result = new LinkedHashMap<>();
+    for (Agent agent : agents) {
+      result.merge(agent.getName(), 1, Integer::sum);
+    }
+    return result;
+  }
+
+  /** Removes all cached outcomes, the statistics are kept. */
+  public void clear() {
+    outcomes.clear();
+  }
+
+  /** @return the number of cached outcomes */
+  public int size() {
+    return outcomes.size();
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /** @return the ratio of lookups which returned a cached outcome, 0 if nothing was looked up */
+  public double hitRate() {
+    long lookups = hits + misses;
+    return lookups > 0 ? (double) hits / lookups : 0.0;
+  }
+
+  /**
+   * Quantized values of the scenario, and the objects it depends on which are compared by identity:
+   * The evaluation function, the behaviors, the collision map type and the death handlers of all
+   * agents.
+   */
+  private static final class Fingerprint {
+    private final int[] data;
+    private final Object[] references;
+    private final int hash;
+
+    Fingerprint(int[] data, Object[] references) {
+      this.data = data;
+      this.references = references;
+      int referencesHash = 0;
+      for (Object reference : references) {
+        referencesHash = 31 * referencesHash + System.identityHashCode(reference);
+      }
+      this.hash = 31 * Arrays.hashCode(data) + referencesHash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Fingerprint other = (Fingerprint) o;
+      return hash == other.hash
+          && Arrays.equals(data, other.data)
+          && sameReferences(references, other.references);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    private static boolean sameReferences(Object[] a, Object[] b) {
+      if (a.length != b.length) {
+        return false;
+      }
+      for (int i = 0; i < a.length; i++) {
+        if (a[i] != b[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** The outcome of one simulation, shared by all hits of its scenario. */
+  public static class Outcome {
+    /** Evaluation of the agents before simulating. */
+    public final IntEvaluation before;
+    /** Evaluation of the agents after simulating. */
+    public final IntEvaluation after;
+    /** See {@link Simulator#simulate(int)}. */
+    public final int framesLeft;
+
+    private final Map<String, Integer> survivorsA;
+    private final Map<String, Integer> survivorsB;
+
+    Outcome(
+        IntEvaluation before,
+        IntEvaluation after,
+        int framesLeft,
+        Map<String, Integer> survivorsA,
+        Map<String, Integer> survivorsB) {
+      this.before = before;
+      this.after = after;
+      this.framesLeft = framesLeft;
+      this.survivorsA = survivorsA;
+      this.survivorsB = survivorsB;
+    }
+
+    /** @return the number of surviving agents of player A, by name */
+    public Map<String, Integer> getSurvivorsA() {
+      return Collections.unmodifiableMap(survivorsA);
+    }
+
+    /** @return the number of surviving agents of player B, by name */
+    public Map<String, Integer> getSurvivorsB() {
+      return Collections.unmodifiableMap(survivorsB);
+    }
+  }
+}
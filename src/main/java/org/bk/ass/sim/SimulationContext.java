@@ -0,0 +1,153 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.collection.UnorderedCollection;
+
+import java.util.SplittableRandom;
+
+/**
+ * State of a {@link Simulator} as seen by the {@link Simulator.Behavior} of one player: The allies
+ * are the agents of that player, the enemies are the agents of the other player.
+ */
+public final class SimulationContext {
+  private static final ThreadLocal<SimulationContext> STANDALONE =
+      ThreadLocal.withInitial(() -> new SimulationContext(null, null, new SplittableRandom()));
+
+  final AgentGrid allyGrid;
+  final AgentGrid enemyGrid;
+  // Replaced when a pooled simulator is reseeded
+  SplittableRandom random;
+  // Null, unless events should be recorded
+  SimulationRecorder recorder;
+  // Null, unless metrics are collected
+  SimulatorMetrics metrics;
+  // Reused to collect the targets of splash damage
+  final UnorderedCollection<Agent> splashTargets = new UnorderedCollection<>();
+  // Null, unless the effects on agents are deferred until the end of a parallel step
+  StepEffects effects;
+
+  SimulationContext(AgentGrid allyGrid, AgentGrid enemyGrid, SplittableRandom random) {
+    this.allyGrid = allyGrid;
+    this.enemyGrid = enemyGrid;
+    this.random = random;
+  }
+
+  /**
+   * Context for behaviors which are used without a simulator, see {@link
+   * Simulator.Behavior#simUnit(int, Agent, UnorderedCollection, UnorderedCollection)}. It has no
+   * grids, so all agents are checked.
+   */
+  static SimulationContext standalone() {
+    return STANDALONE.get();
+  }
+
+  /**
+   * @return true, if behaviors should query the grid of the given agents instead of checking each
+   *     one
+   */
+  boolean useGrid(UnorderedCollection<Agent> agents) {
+    return allyGrid != null && agents.size() >= AgentGrid.MIN_AGENTS;
+  }
+
+  /**
+   * Spatial index of all allies, can be used to find candidates within a range. Null if the
+   * behavior is used without a simulator.
+   */
+  public AgentGrid getAllyGrid() {
+    return allyGrid;
+  }
+
+  /**
+   * Spatial index of all enemies, can be used to find candidates within a range. Null if the
+   * behavior is used without a simulator.
+   */
+  public AgentGrid getEnemyGrid() {
+    return enemyGrid;
+  }
+
+  /**
+   * Random source of the simulator. Only to be used by the thread running the simulation, which
+   * allows different simulators to run concurrently.
+   */
+  public SplittableRandom getRandom() {
+    return random;
+  }
+
+  /** @return the recorder attached to the simulator, or null if no events are recorded */
+  public SimulationRecorder getRecorder() {
+    return recorder;
+  }
+
+  /** @return the metrics attached to the simulator, or null if no metrics are collected */
+  public SimulatorMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Applies damage to the target, or defers it if behaviors are simulated in parallel. A negative
+   * damage means the attack did not hit (ie. due to dark swarm), but will still be recorded.
+   *
+   * @param type the event type used by the recorder
+   */
+  void damage(int type, Agent source, Agent target, Weapon weapon, int damage) {
+    if (effects != null) {
+      effects.add(StepEffects.DAMAGE, type, source, target, weapon, damage);
+      return;
+    }
+    // Deferred damage is counted when being applied
+    if (metrics != null) {
+      if (type == SimulationRecorder.SPLASH) {
+        metrics.splashVictims++;
+      } else {
+        metrics.attacks++;
+      }
+    }
+    if (damage >= 0) {
+      AgentUtil.applyDamage(target, weapon, damage);
+    }
+    if (recorder != null) {
+      recorder.record(type, source, target, target.getHealth(), target.getShields());
+    }
+  }
+
+  /**
+   * Heals or repairs the target, or defers it if behaviors are simulated in parallel.
+   *
+   * @param type the event type used by the recorder, healed targets will not be healed by other
+   *     medics this frame
+   */
+  void heal(int type, Agent source, Agent target, int amount) {
+    if (effects != null) {
+      effects.add(StepEffects.HEAL, type, source, target, null, amount);
+      return;
+    }
+    if (type == SimulationRecorder.HEAL) {
+      target.healedThisFrame = true;
+    }
+    target.heal(amount);
+    if (recorder != null) {
+      recorder.record(type, source, target, target.getHealth(), 0);
+    }
+  }
+
+  /** Stims the agent, the health cost is deferred if behaviors are simulated in parallel. */
+  void stim(Agent agent) {
+    if (effects != null) {
+      agent.remainingStimFrames = Agent.STIM_TIMER;
+      effects.add(StepEffects.STIM, SimulationRecorder.STIM, agent, agent, null, 0);
+      return;
+    }
+    agent.stim();
+    if (recorder != null) {
+      recorder.record(SimulationRecorder.STIM, agent, null, agent.getHealth(), 0);
+    }
+  }
+
+  /** Kills the agent (ie. a suicider), or defers it if behaviors are simulated in parallel. */
+  void kill(Agent agent) {
+    if (effects != null) {
+      effects.add(StepEffects.KILL, 0, agent, agent, null, 0);
+      return;
+    }
+    agent.healthShifted = 0;
+  }
+}
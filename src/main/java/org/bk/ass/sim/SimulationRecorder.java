@@ -0,0 +1,153 @@
+package org.bk.ass.sim;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Records what happened during simulations, ie. to find out why a simulation predicted a loss.
+ * Events are stored as ints in a preallocated ring buffer, so recording only allocates when an
+ * agent is seen for the first time, and only the latest events are kept if the buffer is full. Attach it with {@link Simulator#setRecorder(SimulationRecorder)}, which
+ * can also be done for just a fraction of all simulations.
+ *
+ * <p>Each event has a frame (relative to the start of the simulation), a type, the acting agent,
+ * an optional other agent and 2 values:
+ *
+ * <ul>
+ *   <li>{@link #ATTACK}, {@link #SPLASH}: other is the target, values are its health and shields
+ *       after the hit
+ *   <li>{@link #HEAL}, {@link #REPAIR}: other is the ally, the first value is its health afterwards
+ *   <li>{@link #DEATH}, {@link #MOVE}: values are the position of the agent
+ *   <li>{@link #STIM}: the first value is the health of the agent afterwards
+ * </ul>
+ */
+public final class SimulationRecorder {
+  public static final int ATTACK = 0;
+  public static final int SPLASH = 1;
+  public static final int HEAL = 2;
+  public static final int REPAIR = 3;
+  public static final int DEATH = 4;
+  public static final int MOVE = 5;
+  public static final int STIM = 6;
+  private static final String[] EVENT_NAMES = {
+    "attack", "splash", "heal", "repair", "death", "move", "stim"
+  };
+  private static final int EVENT_SIZE = 6;
+
+  private final int[] events;
+  private final int capacity;
+  private Agent[] agents;
+  private int agentCount;
+  // Ids are per recorder, so the same agent can be seen by multiple recorders
+  private final Map<Agent, Integer> agentIds = new IdentityHashMap<>();
+  private long recorded;
+  int frame;
+
+  /** @param capacity the number of events to keep */
+  public SimulationRecorder(int capacity) {
+    if (capacity < 1) throw new IllegalArgumentException("capacity must be >= 1");
+    this.capacity = capacity;
+    events = new int[capacity * EVENT_SIZE];
+    agents = new Agent[256];
+  }
+
+  void record(int type, Agent agent, Agent other, int a, int b) {
+    int index = (int) (recorded % capacity) * EVENT_SIZE;
+    events[index] = frame;
+    events[index + 1] = type;
+    events[index + 2] = idOf(agent);
+    events[index + 3] = other == null ? -1 : idOf(other);
+    events[index + 4] = a;
+    events[index + 5] = b;
+    recorded++;
+  }
+
+  private int idOf(Agent agent) {
+    Integer id = agentIds.get(agent);
+    if (id != null) {
+      return id;
+    }
+    if (agentCount == agents.length) {
+      agents = Arrays.copyOf(agents, agentCount * 2);
+    }
+    agents[agentCount] = agent;
+    agentIds.put(agent, agentCount);
+    return agentCount++;
+  }
+
+  /** @return the number of events available */
+  public int size() {
+    return (int) Math.min(recorded, capacity);
+  }
+
+  /** @return the number of events that were overwritten because the buffer was full */
+  public long getDroppedEvents() {
+    return recorded - size();
+  }
+
+  /** Removes all events and releases all agents. */
+  public void clear() {
+    Arrays.fill(agents, 0, agentCount, null);
+    agentIds.clear();
+    agentCount = 0;
+    recorded = 0;
+    frame = 0;
+  }
+
+  /** Calls the consumer for all available events, oldest first. */
+  public void forEachEvent(EventConsumer consumer) {
+    long first = recorded - size();
+    for (long i = first; i < recorded; i++) {
+      int index = (int) (i % capacity) * EVENT_SIZE;
+      int other = events[index + 3];
+      consumer.accept(
+          events[index],
+          events[index + 1],
+          agents[events[index + 2]],
+          other < 0 ? null : agents[other],
+          events[index + 4],
+          events[index + 5]);
+    }
+  }
+
+  /**
+   * Writes all available events as CSV, one event per line. Agents are written as their id in this
+   * recorder, followed by their name.
+   */
+  public void exportCsv(Appendable out) throws IOException {
+    out.append("frame,event,agent,agentName,other,otherName,a,b\n");
+    long first = recorded - size();
+    for (long i = first; i < recorded; i++) {
+      int index = (int) (i % capacity) * EVENT_SIZE;
+      int agent = events[index + 2];
+      int other = events[index + 3];
+      out.append(String.valueOf(events[index]))
+          .append(',')
+          .append(EVENT_NAMES[events[index + 1]])
+          .append(',')
+          .append(String.valueOf(agent))
+          .append(',')
+          .append(agents[agent].getName())
+          .append(',')
+          .append(other < 0 ? "" : String.valueOf(other))
+          .append(',')
+          .append(other < 0 ? "" : agents[other].getName())
+          .append(',')
+          .append(String.valueOf(events[index + 4]))
+          .append(',')
+          .append(String.valueOf(events[index + 5]))
+          .append('\n');
+    }
+  }
+
+  /** @return the name of the given event type, ie. "attack" */
+  public static String eventName(int type) {
+    return EVENT_NAMES[type];
+  }
+
+  @FunctionalInterface
+  public interface EventConsumer {
+    void accept(int frame, int type, Agent agent, Agent other, int a, int b);
+  }
+}
@@ -3,11 +3,24 @@ package org.bk.ass.sim;
 import org.bk.ass.PositionOutOfBoundsException;
 import org.bk.ass.collection.UnorderedCollection;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiPredicate;
+import java.util.function.Supplier;
 import java.util.function.ToIntFunction;
 
+import static java.lang.Math.sqrt;
+import static org.bk.ass.sim.AgentUtil.distanceSquared;
+
 /**
  * Used to simulate 2 groups of agents engaging each other. Either use the default constructor which
  * initialized the default behavior or customize the behaviors. Ie. if you want to simulate one
@@ -21,6 +34,12 @@ import java.util.function.ToIntFunction;
  *   <li>Before each simulation call <code>resetUnits()</code> before adding units
  * </ol>
  *
+ * Alternatively, agents can be kept between frames and only be updated. Use {@link
+ * #putAgentA(Agent)} and {@link #putAgentB(Agent)} to add or replace agents by their user object,
+ * {@link #removeAgent(Object)} to remove them and {@link #moveAgent(Agent, int, int)} to update
+ * their positions. Take a {@link #snapshot()} before simulating, and {@link #restore(Snapshot)} it
+ * afterwards to revert the changes of the simulation before applying the next updates.
+ *
  * Be cautious when modifying {@link Agent}s after they have been added to the simulation.
  */
 public class Simulator {
@@ -31,21 +50,51 @@ public class Simulator {
   public static final ToIntFunction<Agent> HEALTH_AND_HALFED_SHIELD =
       agent -> agent.getHealth() + agent.getShields() / 2;
 
-  private static final int MAX_MAP_DIMENSION = 8192;
+  static final int MAX_MAP_DIMENSION = 8192;
   private static final int TILE_SIZE = 16;
   // Hack to fix DTs not being able to hit a target in another TILE due to collision
   public static final int MIN_SIMULATION_RANGE =
       (TILE_SIZE + TILE_SIZE / 2) * (TILE_SIZE + TILE_SIZE / 2);
-  private static final int COLLISION_MAP_DIMENSION = MAX_MAP_DIMENSION / TILE_SIZE;
+  // Limit for skipped frames, in case agents can't move
+  private static final int MAX_APPROACH_FRAMES = 1 << 12;
+  private static final BiPredicate<Agent, Agent> ANY_AGENT = (source, agent) -> true;
+  static final int COLLISION_MAP_DIMENSION = MAX_MAP_DIMENSION / TILE_SIZE;
+  // Agents per task of a parallel step, independent of the pool to keep results reproducible
+  private static final int CHUNK_SIZE = 32;
   private final UnorderedCollection<Agent> playerA = new UnorderedCollection<>();
   private final UnorderedCollection<Agent> playerB = new UnorderedCollection<>();
+  private final Map<Object, Agent> agentsByUserObject = new HashMap<>();
 
-  final byte[] collision = new byte[COLLISION_MAP_DIMENSION * COLLISION_MAP_DIMENSION];
-  private final Behavior playerABehavior;
-  private final Behavior playerBBehavior;
-  private final int frameSkip;
+  final CollisionMap collision;
+  private final AgentGrid gridA = new AgentGrid();
+  private final AgentGrid gridB = new AgentGrid();
+  private final SimulationContext contextA;
+  private final SimulationContext contextB;
+  final Behavior playerABehavior;
+  final Behavior playerBBehavior;
+  final int frameSkip;
+  final boolean skipApproach;
+  // Null, if the random source was not seeded
+  private final Long seed;
+  // Null, unless agents are simulated in parallel
+  final ForkJoinPool pool;
+  private final List<SimulationContext> chunkContextsA = new ArrayList<>();
+  private final List<SimulationContext> chunkContextsB = new ArrayList<>();
+  private boolean[] chunkRunning = new boolean[0];
+  private int steps;
+  private SimulationRecorder recorder;
+  private SimulatorMetrics metrics;
+  // Set while the simulator is idle in a SimulatorPool
+  boolean released;
 
-  private Simulator(int frameSkip, Behavior playerABehavior, Behavior playerBBehavior) {
+  private Simulator(
+      int frameSkip,
+      Behavior playerABehavior,
+      Behavior playerBBehavior,
+      Long seed,
+      CollisionMap collision,
+      boolean skipApproach,
+      ForkJoinPool pool) {
     if (frameSkip < 1) throw new IllegalArgumentException("frameSkip must be >= 1");
     Objects.requireNonNull(playerABehavior, "Behavior of player A must be set");
     Objects.requireNonNull(playerBBehavior, "Behavior of player B must be set");
@@ -53,30 +102,134 @@ public class Simulator {
     this.playerABehavior = playerABehavior;
     this.playerBBehavior = playerBBehavior;
     this.frameSkip = frameSkip;
+    this.skipApproach = skipApproach;
+    this.seed = seed;
+    this.pool = pool;
+    this.collision = Objects.requireNonNull(collision, "Collision map must be set");
+    SplittableRandom random = seed != null ? new SplittableRandom(seed) : new SplittableRandom();
+    contextA = new SimulationContext(gridA, gridB, random);
+    contextB = new SimulationContext(gridB, gridA, random);
   }
 
+  /**
+   * Adds the given agent for player A. An agent can only be simulated by one simulator at a time,
+   * simulating it while another simulation of it is running throws an {@link
+   * IllegalStateException}. Agents can be added to several simulators which are simulated one
+   * after another.
+   */
   public Simulator addAgentA(Agent agent) {
     checkBounds(agent);
+    agent.sharedType();
     playerA.add(agent);
-    if (!agent.isFlyer) {
-      collision[colindex(agent.x, agent.y)]++;
+    if (!agent.isFlyer()) {
+      collision.increment(colindex(agent.x, agent.y));
     }
     return this;
   }
 
   public void removeAgentA(Agent agent) {
-    playerA.remove(agent);
+    if (playerA.remove(agent)) {
+      removed(agent);
+    }
   }
 
   public void removeAgentB(Agent agent) {
-    playerB.remove(agent);
+    if (playerB.remove(agent)) {
+      removed(agent);
+    }
+  }
+
+  private void removed(Agent agent) {
+    if (!agent.isFlyer()) {
+      collision.decrement(colindex(agent.x, agent.y));
+    }
+    unregister(agent);
+  }
+
+  /** Removes the agent from the user object lookup, if it was added by user object. */
+  private void unregister(Agent agent) {
+    if (agent.userObject != null) {
+      agentsByUserObject.remove(agent.userObject, agent);
+    }
+  }
+
+  /**
+   * Adds the given agent for player A. If an agent with the same user object was added before (for
+   * either player), it will be replaced.
+   */
+  public Simulator putAgentA(Agent agent) {
+    removeAgent(requireUserObject(agent));
+    addAgentA(agent);
+    agentsByUserObject.put(agent.userObject, agent);
+    return this;
+  }
+
+  /**
+   * Adds the given agent for player B. If an agent with the same user object was added before (for
+   * either player), it will be replaced.
+   */
+  public Simulator putAgentB(Agent agent) {
+    removeAgent(requireUserObject(agent));
+    addAgentB(agent);
+    agentsByUserObject.put(agent.userObject, agent);
+    return this;
+  }
+
+  private static Object requireUserObject(Agent agent) {
+    return Objects.requireNonNull(agent.userObject, "Agent must have a user object to be put");
+  }
+
+  /**
+   * @return the agent added with {@link #putAgentA(Agent)} or {@link #putAgentB(Agent)} for the
+   *     given user object, or null if there is none (ie. because it was removed or died)
+   */
+  public Agent getAgent(Object userObject) {
+    return agentsByUserObject.get(userObject);
+  }
+
+  /**
+   * Removes the agent added with {@link #putAgentA(Agent)} or {@link #putAgentB(Agent)} for the
+   * given user object.
+   *
+   * @return the removed agent, or null if there is none
+   */
+  public Agent removeAgent(Object userObject) {
+    Agent agent = agentsByUserObject.remove(userObject);
+    if (agent != null) {
+      removeAgentA(agent);
+      removeAgentB(agent);
+    }
+    return agent;
+  }
+
+  /**
+   * Moves an agent to the given position, keeping the collision map updated. The agent must
+   * currently be part of this simulator.
+   */
+  public void moveAgent(Agent agent, int x, int y) {
+    if (x < 0 || x >= MAX_MAP_DIMENSION || y < 0 || y >= MAX_MAP_DIMENSION) {
+      throw new PositionOutOfBoundsException(agent + " can't be moved outside the map.");
+    }
+    if (!agent.isFlyer()) {
+      collision.decrement(colindex(agent.x, agent.y));
+      collision.increment(colindex(x, y));
+    }
+    agent.x = x;
+    agent.y = y;
   }
 
+  /**
+   * Adds the given agent for player B. An agent can only be simulated by one simulator at a time,
+   * simulating it while another simulation of it is running throws an {@link
+   * IllegalStateException}. Agents can be added to several simulators which are simulated one
+   * after another.
+   */
   public Simulator addAgentB(Agent agent) {
     checkBounds(agent);
+    agent.sharedType();
     playerB.add(agent);
-    if (!agent.isFlyer) {
-      collision[colindex(agent.x, agent.y)]++;
+    if (!agent.isFlyer()) {
+      collision.increment(colindex(agent.x, agent.y));
     }
     return this;
   }
@@ -127,27 +280,156 @@ public class Simulator {
    */
   public int simulate(int frames) {
     if (frames > 0) frames += Math.floorMod(frameSkip - frames, frameSkip);
-    while (frames != 0 && !playerA.isEmpty() && !playerB.isEmpty()) {
-      frames -= frameSkip;
-      if (!step()) {
-        break;
+    try {
+      // Agents might have been added, removed or modified since the last simulation
+      gridA.rebuild(playerA);
+      gridB.rebuild(playerB);
+      boolean engaged = !skipApproach;
+      steps = 0;
+      int frame = 0;
+      while (frames != 0 && !playerA.isEmpty() && !playerB.isEmpty()) {
+        int stepFrames = frameSkip;
+        if (!engaged) {
+          int approachFrames = approachFrames();
+          if (approachFrames == 0) {
+            engaged = true;
+          } else {
+            stepFrames = frames > 0 ? Math.min(approachFrames, frames) : approachFrames;
+          }
+        }
+        frames -= stepFrames;
+        steps++;
+        if (metrics != null) metrics.steps++;
+        if (recorder != null) recorder.frame = frame;
+        frame += stepFrames;
+        if (!step(stepFrames)) {
+          break;
+        }
       }
+    } finally {
+      // Release the agents, so other simulators can simulate them
+      releaseReferences();
     }
+    return frames;
+  }
+
+  private void releaseReferences() {
+    gridA.clear();
+    gridB.clear();
     playerA.clearReferences();
     playerB.clearReferences();
-    return frames;
+    contextA.splashTargets.clear();
+    contextA.splashTargets.clearReferences();
+    contextB.splashTargets.clear();
+    contextB.splashTargets.clearReferences();
+    for (SimulationContext context : chunkContextsA) {
+      context.splashTargets.clear();
+      context.splashTargets.clearReferences();
+    }
+    for (SimulationContext context : chunkContextsB) {
+      context.splashTargets.clear();
+      context.splashTargets.clearReferences();
+    }
+  }
+
+  /**
+   * @return the number of steps done by the last simulation, ie. to compare the cost of different
+   *     frame skips or of skipping the approach (see {@link Builder#withSkipApproach(boolean)})
+   */
+  public int getSteps() {
+    return steps;
+  }
+
+  /**
+   * Attaches a recorder, which will record all events of the following simulations. Use null to
+   * stop recording.
+   */
+  public void setRecorder(SimulationRecorder recorder) {
+    this.recorder = recorder;
+    contextA.recorder = recorder;
+    contextB.recorder = recorder;
+  }
+
+  public SimulationRecorder getRecorder() {
+    return recorder;
+  }
+
+  /**
+   * Attaches metrics, which will count the work done by the following simulations and the built-in
+   * behaviors. Use null to stop counting, which leaves only a null check at each counting point.
+   */
+  public void setMetrics(SimulatorMetrics metrics) {
+    this.metrics = metrics;
+    contextA.metrics = metrics;
+    contextB.metrics = metrics;
+  }
+
+  public SimulatorMetrics getMetrics() {
+    return metrics;
   }
 
   public void reset() {
+    clearAgents();
+    agentsByUserObject.clear();
+  }
+
+  /**
+   * Restores the random source to its state after building, if the simulator was seeded. The random
+   * sources of parallel chunks are split from it again.
+   */
+  void reseed() {
+    if (seed != null) {
+      SplittableRandom random = new SplittableRandom(seed);
+      contextA.random = random;
+      contextB.random = random;
+      chunkContextsA.clear();
+      chunkContextsB.clear();
+    }
+  }
+
+  /** Drops the references to removed agents, so they can be garbage collected. */
+  void clearReferences() {
+    playerA.clearReferences();
+    playerB.clearReferences();
+  }
+
+  private void clearAgents() {
+    collision.clear();
+    resetUnits();
+  }
+
+  /**
+   * Stores all agents and their mutable state (position, health, shields, energy, cooldowns and
+   * targets). Use {@link #restore(Snapshot)} to branch multiple simulations from the same setup.
+   */
+  public Snapshot snapshot() {
+    return snapshot(new Snapshot());
+  }
+
+  /** Same as {@link #snapshot()}, but reuses the given snapshot to avoid allocations. */
+  public Snapshot snapshot(Snapshot snapshot) {
+    snapshot.store(playerA, playerB, agentsByUserObject);
+    return snapshot;
+  }
+
+  /**
+   * Restores the agents and their state of the given snapshot. Agents added afterwards (ie. by
+   * death handlers) are removed, agents killed since are restored. The snapshot can be restored
+   * multiple times. Agents added with {@link #putAgentA(Agent)} or {@link #putAgentB(Agent)} are
+   * registered by their user object as they were when the snapshot was taken.
+   */
+  public void restore(Snapshot snapshot) {
+    clearAgents();
+    agentsByUserObject.clear();
+    snapshot.restore(playerA, playerB, agentsByUserObject);
     for (int i = playerA.size() - 1; i >= 0; i--) {
       Agent agent = playerA.get(i);
-      collision[colindex(agent.x, agent.y)] = 0;
+      if (!agent.isFlyer()) collision.increment(colindex(agent.x, agent.y));
     }
     for (int i = playerB.size() - 1; i >= 0; i--) {
       Agent agent = playerB.get(i);
-      collision[colindex(agent.x, agent.y)] = 0;
+      if (!agent.isFlyer()) collision.increment(colindex(agent.x, agent.y));
     }
-    resetUnits();
   }
 
   private void resetUnits() {
@@ -156,90 +438,316 @@ public class Simulator {
   }
 
   /**
-   * Simulate one frame.
+   * Determines how many frames all agents can be moved at once, because no agent can be in weapon
+   * range of an enemy before. The lower bound of frames until agents engage is based on the
+   * closest pair of enemies, the maximum weapon range and the maximum speed of both players.
    *
-   * @return false, if nothing happened in this step and the sim can be aborted.
+   * <p>Ground agents should not move more than one tile at once, so they are still blocked by
+   * collisions. With ground agents, the result is therefore at most the frames the fastest of them
+   * needs to cross a tile (but at least one step). Only flyers are moved all the way at once.
+   *
+   * @return a multiple of the frame skip, or 0 if agents might be engaged within the next two steps
    */
-  private boolean step() {
-    boolean simRunning = false;
+  private int approachFrames() {
+    int maxRange = 0;
+    float maxSpeedA = 0;
+    float maxSpeedB = 0;
+    float maxGroundSpeed = 0;
+    // Bounding boxes of both players
+    int minXA = Integer.MAX_VALUE;
+    int minYA = Integer.MAX_VALUE;
+    int maxXA = Integer.MIN_VALUE;
+    int maxYA = Integer.MIN_VALUE;
     for (int i = playerA.size() - 1; i >= 0; i--) {
       Agent agent = playerA.get(i);
-      simRunning |=
-          agent.isLockeddown
-              || agent.isStasised
-              || playerABehavior.simUnit(frameSkip, agent, playerA, playerB);
+      maxRange = Math.max(maxRange, Math.max(agent.groundWeapon.maxRange, agent.airWeapon.maxRange));
+      maxSpeedA = Math.max(maxSpeedA, agent.speed);
+      if (!agent.isFlyer()) maxGroundSpeed = Math.max(maxGroundSpeed, agent.speed);
+      minXA = Math.min(minXA, agent.x);
+      minYA = Math.min(minYA, agent.y);
+      maxXA = Math.max(maxXA, agent.x);
+      maxYA = Math.max(maxYA, agent.y);
     }
+    int minXB = Integer.MAX_VALUE;
+    int minYB = Integer.MAX_VALUE;
+    int maxXB = Integer.MIN_VALUE;
+    int maxYB = Integer.MIN_VALUE;
     for (int i = playerB.size() - 1; i >= 0; i--) {
       Agent agent = playerB.get(i);
+      maxRange = Math.max(maxRange, Math.max(agent.groundWeapon.maxRange, agent.airWeapon.maxRange));
+      maxSpeedB = Math.max(maxSpeedB, agent.speed);
+      if (!agent.isFlyer()) maxGroundSpeed = Math.max(maxGroundSpeed, agent.speed);
+      minXB = Math.min(minXB, agent.x);
+      minYB = Math.min(minYB, agent.y);
+      maxXB = Math.max(maxXB, agent.x);
+      maxYB = Math.max(maxYB, agent.y);
+    }
+    // Also covers the minimum simulation range
+    maxRange += TILE_SIZE * 2;
+    float closingSpeed = maxSpeedA + maxSpeedB;
+    long engagedDistance = (long) (maxRange + 2 * frameSkip * closingSpeed);
+    long engagedDistanceSquared = engagedDistance * engagedDistance;
+
+    // The gap between the bounding boxes is a lower bound of the distance of the closest pair
+    long gapX = Math.max(0, Math.max(minXB - maxXA, minXA - maxXB));
+    long gapY = Math.max(0, Math.max(minYB - maxYA, minYA - maxYB));
+    long minDistanceSquared = gapX * gapX + gapY * gapY;
+    if (minDistanceSquared <= engagedDistanceSquared) {
+      minDistanceSquared = closestPairDistanceSquared(engagedDistanceSquared);
+      if (minDistanceSquared <= engagedDistanceSquared) {
+        return 0;
+      }
+    }
+    int frames =
+        closingSpeed > 0
+            ? (int) Math.min(MAX_APPROACH_FRAMES, (sqrt(minDistanceSquared) - maxRange) / closingSpeed)
+            : MAX_APPROACH_FRAMES;
+    if (maxGroundSpeed > 0) {
+      frames = Math.min(frames, (int) (TILE_SIZE / maxGroundSpeed));
+    }
+    return Math.max(frameSkip, frames / frameSkip * frameSkip);
+  }
+
+  /**
+   * Uses the grid of the larger player to find the closest enemy of each agent of the other player.
+   *
+   * @return the squared distance of the closest pair of enemies, or any squared distance not
+   *     greater than the given threshold if there is such a pair
+   */
+  private long closestPairDistanceSquared(long thresholdSquared) {
+    boolean queryB = playerB.size() >= playerA.size();
+    UnorderedCollection<Agent> sources = queryB ? playerA : playerB;
+    AgentGrid targets = queryB ? gridB : gridA;
+    long minDistanceSquared = Long.MAX_VALUE;
+    for (int i = sources.size() - 1; i >= 0; i--) {
+      Agent source = sources.get(i);
+      Agent closest = targets.nearest(source, null, ANY_AGENT);
+      if (closest != null) {
+        long distanceSquared = distanceSquared(source, closest);
+        if (distanceSquared <= thresholdSquared) {
+          return distanceSquared;
+        }
+        minDistanceSquared = Math.min(minDistanceSquared, distanceSquared);
+      }
+    }
+    return minDistanceSquared;
+  }
+
+  /**
+   * Simulate the given number of frames at once.
+   *
+   * @return false, if nothing happened in this step and the sim can be aborted.
+   */
+  private boolean step(int frames) {
+    long start = metrics != null ? System.nanoTime() : 0;
+    boolean simRunning;
+    if (pool != null) {
+      simRunning = simAgentsInParallel(frames);
+    } else {
+      simRunning =
+          simAgents(frames, playerABehavior, playerA, playerB, contextA, 0, playerA.size())
+              | simAgents(frames, playerBBehavior, playerB, playerA, contextB, 0, playerB.size());
+    }
+    long behaviorsDone = metrics != null ? System.nanoTime() : 0;
+    removeDead(playerA, gridA);
+    removeDead(playerB, gridB);
+    long removeDeadDone = metrics != null ? System.nanoTime() : 0;
+    updateStats(playerA, gridA, frames);
+    updateStats(playerB, gridB, frames);
+    if (metrics != null) {
+      metrics.behaviorNanos += behaviorsDone - start;
+      metrics.removeDeadNanos += removeDeadDone - behaviorsDone;
+      metrics.updateStatsNanos += System.nanoTime() - removeDeadDone;
+    }
+    return simRunning;
+  }
+
+  private static boolean simAgents(
+      int frames,
+      Behavior behavior,
+      UnorderedCollection<Agent> allies,
+      UnorderedCollection<Agent> enemies,
+      SimulationContext context,
+      int from,
+      int to) {
+    boolean simRunning = false;
+    for (int i = to - 1; i >= from; i--) {
+      Agent agent = allies.get(i);
       simRunning |=
           agent.isLockeddown
               || agent.isStasised
-              || playerBBehavior.simUnit(frameSkip, agent, playerB, playerA);
+              || behavior.simUnit(frames, agent, allies, enemies, context);
     }
-    removeDead(playerA);
-    removeDead(playerB);
-    updateStats(playerA);
-    updateStats(playerB);
     return simRunning;
   }
 
-  private void removeDead(UnorderedCollection<Agent> agents) {
+  /**
+   * Simulates chunks of agents in parallel. All behaviors see the state at the start of the step,
+   * their effects on other agents are collected per chunk and applied afterwards in a fixed order.
+   * The chunks and their random sources don't depend on the pool, so neither do the results.
+   */
+  private boolean simAgentsInParallel(int frames) {
+    int chunksA = (playerA.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    int chunksB = (playerB.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    prepareChunkContexts(chunkContextsA, chunksA, gridA, gridB);
+    prepareChunkContexts(chunkContextsB, chunksB, gridB, gridA);
+    if (chunkRunning.length < chunksA + chunksB) {
+      chunkRunning = new boolean[chunksA + chunksB];
+    }
+    pool.invoke(new SimulateChunksAction(frames, chunksA, 0, chunksA + chunksB));
+    boolean simRunning = false;
+    for (int i = 0; i < chunksA; i++) {
+      applyChunk(chunkContextsA.get(i), contextA);
+      simRunning |= chunkRunning[i];
+    }
+    for (int i = 0; i < chunksB; i++) {
+      applyChunk(chunkContextsB.get(i), contextB);
+      simRunning |= chunkRunning[chunksA + i];
+    }
+    return simRunning;
+  }
+
+  private void prepareChunkContexts(
+      List<SimulationContext> chunkContexts, int chunks, AgentGrid allyGrid, AgentGrid enemyGrid) {
+    while (chunkContexts.size() < chunks) {
+      SimulationContext context =
+          new SimulationContext(allyGrid, enemyGrid, contextA.random.split());
+      context.effects = new StepEffects();
+      chunkContexts.add(context);
+    }
+    // Each chunk counts separately, to not share counters between threads
+    for (int i = 0; i < chunks; i++) {
+      SimulationContext context = chunkContexts.get(i);
+      if (metrics == null) {
+        context.metrics = null;
+      } else if (context.metrics == null) {
+        context.metrics = new SimulatorMetrics();
+      }
+    }
+  }
+
+  private void applyChunk(SimulationContext chunkContext, SimulationContext context) {
+    chunkContext.effects.applyTo(context);
+    if (metrics != null) {
+      metrics.drain(chunkContext.metrics);
+    }
+  }
+
+  private boolean simChunk(int frames, int chunk, int chunksA) {
+    boolean playerAChunk = chunk < chunksA;
+    UnorderedCollection<Agent> allies = playerAChunk ? playerA : playerB;
+    int index = playerAChunk ? chunk : chunk - chunksA;
+    // Chunks are taken from the end, so applying their effects keeps the order of a normal step
+    int to = allies.size() - index * CHUNK_SIZE;
+    return simAgents(
+        frames,
+        playerAChunk ? playerABehavior : playerBBehavior,
+        allies,
+        playerAChunk ? playerB : playerA,
+        (playerAChunk ? chunkContextsA : chunkContextsB).get(index),
+        Math.max(0, to - CHUNK_SIZE),
+        to);
+  }
+
+  private class SimulateChunksAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int frames;
+    private final int chunksA;
+    private final int from;
+    private final int to;
+
+    SimulateChunksAction(int frames, int chunksA, int from, int to) {
+      this.frames = frames;
+      this.chunksA = chunksA;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        chunkRunning[from] = simChunk(frames, from, chunksA);
+      } else if (to > from) {
+        int mid = (from + to) >>> 1;
+        invokeAll(
+            new SimulateChunksAction(frames, chunksA, from, mid),
+            new SimulateChunksAction(frames, chunksA, mid, to));
+      }
+    }
+  }
+
+  private void removeDead(UnorderedCollection<Agent> agents, AgentGrid grid) {
     int i = 0;
     while (i < agents.size()) {
       if (agents.get(i).healthShifted < 1) {
         Agent agent = agents.removeAt(i);
-        if (!agent.isFlyer) collision[colindex(agent.x, agent.y)]--;
-        agent.onDeathHandler.accept(agent, agents);
+        if (metrics != null) metrics.deaths++;
+        if (!agent.isFlyer()) collision.decrement(colindex(agent.x, agent.y));
+        unregister(agent);
+        grid.remove(agent);
+        if (recorder != null) {
+          recorder.record(SimulationRecorder.DEATH, agent, null, agent.x, agent.y);
+        }
+        if (agent.onDeathHandler != Agent.NO_DEATH_HANDLER) {
+          agent.onDeathHandler.accept(agent, agents);
+          // The handler might have added or removed agents
+          grid.rebuild(agents);
+        }
       } else {
         i++;
       }
     }
   }
 
-  private void updateStats(UnorderedCollection<Agent> agents) {
+  private void updateStats(UnorderedCollection<Agent> agents, AgentGrid grid, int frames) {
     for (int i = agents.size() - 1; i >= 0; i--) {
       Agent agent = agents.get(i);
 
       assert agent.healthShifted >= 0;
 
-      updatePosition(agent);
+      updatePosition(agent, grid);
       agent.vx = 0;
       agent.vy = 0;
       agent.healedThisFrame = false;
 
       // Since these calls are potentially made every frame, no boundary checks are done for performance reasons!
       // Bounds are established when the fields are modified.
-      agent.cooldown -= frameSkip;
-      agent.shieldsShifted += 7 * frameSkip;
-      if (agent.plagueDamagePerFrameShifted * frameSkip < agent.healthShifted)
-        agent.healthShifted -= agent.plagueDamagePerFrameShifted * frameSkip;
-      agent.remainingStimFrames -= frameSkip;
-      if (agent.regeneratesHealth) agent.healthShifted += 4 * frameSkip;
-      agent.energyShifted += 8 * frameSkip;
+      agent.cooldown -= frames;
+      agent.shieldsShifted += 7 * frames;
+      if (agent.plagueDamagePerFrameShifted * frames < agent.healthShifted)
+        agent.healthShifted -= agent.plagueDamagePerFrameShifted * frames;
+      agent.remainingStimFrames -= frames;
+      if (agent.regeneratesHealth()) agent.healthShifted += 4 * frames;
+      agent.energyShifted += 8 * frames;
     }
   }
 
-  private void updatePosition(Agent agent) {
+  private void updatePosition(Agent agent, AgentGrid grid) {
     int tx = agent.x + agent.vx;
     int ty = agent.y + agent.vy;
     if (tx < 0 || ty < 0 || tx >= MAX_MAP_DIMENSION || ty >= MAX_MAP_DIMENSION) {
       return;
     }
 
-    if (!agent.isFlyer) {
+    if (!agent.isFlyer()) {
       int oldCI = colindex(agent.x, agent.y);
       int newCI = colindex(tx, ty);
       if (oldCI != newCI) {
-        if (collision[newCI] > TILE_SIZE / 8 - 1) {
+        if (collision.get(newCI) > TILE_SIZE / 8 - 1) {
+          if (metrics != null) metrics.collisionRejections++;
           return;
         }
-        collision[oldCI]--;
-        collision[newCI]++;
+        collision.decrement(oldCI);
+        collision.increment(newCI);
       }
     }
 
+    if (recorder != null && (tx != agent.x || ty != agent.y)) {
+      recorder.record(SimulationRecorder.MOVE, agent, null, tx, ty);
+    }
     agent.x = tx;
     agent.y = ty;
+    grid.update(agent);
   }
 
   private int colindex(int tx, int ty) {
@@ -279,17 +787,28 @@ public class Simulator {
         Agent agent,
         UnorderedCollection<Agent> allies,
         UnorderedCollection<Agent> enemies) {
-      if (agent.isSuicider) {
-        return suiciderSimulator.simUnit(frameSkip, agent, allies, enemies);
+      return simUnit(frameSkip, agent, allies, enemies, SimulationContext.standalone());
+    }
+
+    @Override
+    public boolean simUnit(
+        int frameSkip,
+        Agent agent,
+        UnorderedCollection<Agent> allies,
+        UnorderedCollection<Agent> enemies,
+        SimulationContext context) {
+      if (agent.isSuicider()) {
+        return suiciderSimulator.simUnit(frameSkip, agent, allies, enemies, context);
       }
-      if (agent.isHealer) {
-        return healerSimulator.simUnit(frameSkip, agent, allies, enemies);
+      if (agent.isHealer()) {
+        return healerSimulator.simUnit(frameSkip, agent, allies, enemies, context);
       }
-      if (agent.isRepairer && repairerSimulator.simUnit(frameSkip, agent, allies, enemies)) {
+      if (agent.isRepairer()
+          && repairerSimulator.simUnit(frameSkip, agent, allies, enemies, context)) {
         return true;
         // Otherwise FIGHT, you puny SCV!
       }
-      return attackerSimulator.simUnit(frameSkip, agent, allies, enemies);
+      return attackerSimulator.simUnit(frameSkip, agent, allies, enemies, context);
     }
   }
 
@@ -308,6 +827,113 @@ public class Simulator {
             Agent agent,
             UnorderedCollection<Agent> allies,
             UnorderedCollection<Agent> enemies);
+
+    /**
+     * Same as {@link #simUnit(int, Agent, UnorderedCollection, UnorderedCollection)}, but with
+     * access to the state of the simulation. This is called by the {@link Simulator}, override it
+     * to use the context.
+     *
+     * @param context the simulation state as seen by the player of the agent, ie. to query agents
+     *     in range
+     */
+    default boolean simUnit(
+            int frameSkip,
+            Agent agent,
+            UnorderedCollection<Agent> allies,
+            UnorderedCollection<Agent> enemies,
+            SimulationContext context) {
+      return simUnit(frameSkip, agent, allies, enemies);
+    }
+  }
+
+  /**
+   * State of all agents of a {@link Simulator}, see {@link Simulator#snapshot()}. Only the state
+   * changed by a simulation is stored, the agents themselves are not copied.
+   */
+  public static final class Snapshot {
+    private static final int FIELDS = 9;
+    private Agent[] agents = new Agent[0];
+    // attackTarget and restoreTarget of each agent
+    private Agent[] targets = new Agent[0];
+    private int[] state = new int[0];
+    // Whether each agent was registered by its user object
+    private boolean[] registered = new boolean[0];
+    private int sizeA;
+    private int size;
+
+    void store(
+        UnorderedCollection<Agent> playerA,
+        UnorderedCollection<Agent> playerB,
+        Map<Object, Agent> agentsByUserObject) {
+      sizeA = playerA.size();
+      size = sizeA + playerB.size();
+      if (agents.length < size) {
+        agents = new Agent[size];
+        targets = new Agent[size * 2];
+        state = new int[size * FIELDS];
+        registered = new boolean[size];
+      }
+      for (int i = 0; i < sizeA; i++) {
+        store(i, playerA.get(i), agentsByUserObject);
+      }
+      for (int i = sizeA; i < size; i++) {
+        store(i, playerB.get(i - sizeA), agentsByUserObject);
+      }
+      // Don't keep references to agents of earlier snapshots
+      Arrays.fill(agents, size, agents.length, null);
+      Arrays.fill(targets, size * 2, targets.length, null);
+    }
+
+    private void store(int index, Agent agent, Map<Object, Agent> agentsByUserObject) {
+      agents[index] = agent;
+      registered[index] =
+          agent.userObject != null && agentsByUserObject.get(agent.userObject) == agent;
+      targets[index * 2] = agent.attackTarget;
+      targets[index * 2 + 1] = agent.restoreTarget;
+      int offset = index * FIELDS;
+      state[offset] = agent.x;
+      state[offset + 1] = agent.y;
+      state[offset + 2] = agent.vx;
+      state[offset + 3] = agent.vy;
+      state[offset + 4] = agent.healthShifted;
+      state[offset + 5] = agent.shieldsShifted;
+      state[offset + 6] = agent.energyShifted;
+      state[offset + 7] = agent.cooldown;
+      state[offset + 8] = agent.remainingStimFrames;
+    }
+
+    void restore(
+        UnorderedCollection<Agent> playerA,
+        UnorderedCollection<Agent> playerB,
+        Map<Object, Agent> agentsByUserObject) {
+      for (int i = 0; i < sizeA; i++) {
+        playerA.add(restore(i, agentsByUserObject));
+      }
+      for (int i = sizeA; i < size; i++) {
+        playerB.add(restore(i, agentsByUserObject));
+      }
+    }
+
+    private Agent restore(int index, Map<Object, Agent> agentsByUserObject) {
+      Agent agent = agents[index];
+      if (registered[index]) {
+        agentsByUserObject.put(agent.userObject, agent);
+      }
+      agent.attackTarget = targets[index * 2];
+      agent.restoreTarget = targets[index * 2 + 1];
+      int offset = index * FIELDS;
+      agent.x = state[offset];
+      agent.y = state[offset + 1];
+      agent.vx = state[offset + 2];
+      agent.vy = state[offset + 3];
+      agent.healthShifted = state[offset + 4];
+      agent.shieldsShifted = state[offset + 5];
+      agent.energyShifted = state[offset + 6];
+      agent.cooldown = state[offset + 7];
+      agent.remainingStimFrames = state[offset + 8];
+      agent.healedThisFrame = false;
+      return agent;
+    }
   }
 
   public static class IntEvaluation {
@@ -347,9 +973,16 @@ public class Simulator {
   }
 
   public static final class Builder {
-    private Behavior playerABehavior = new RoleBasedBehavior();
-    private Behavior playerBBehavior = new RoleBasedBehavior();
+    // Stateless, shared to make simulators of different builders equal for a SimulationCache
+    private static final Behavior DEFAULT_BEHAVIOR = new RoleBasedBehavior();
+
+    private Behavior playerABehavior = DEFAULT_BEHAVIOR;
+    private Behavior playerBBehavior = DEFAULT_BEHAVIOR;
     private int frameSkip = 1;
+    private Long seed;
+    private Supplier<? extends CollisionMap> collisionMapSupplier = ArrayCollisionMap::new;
+    private boolean skipApproach;
+    private ForkJoinPool pool;
 
     public Builder() {}
 
@@ -368,8 +1001,77 @@ public class Simulator {
       return this;
     }
 
+    /**
+     * Seeds the random source of the simulator (used ie. to select a flee direction), making
+     * simulations reproducible.
+     */
+    public Builder withSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /**
+     * Sets how each simulator stores the collision map, ie. use <code>SparseCollisionMap::new
+     * </code> to keep many simulators of small fights around. Defaults to {@link
+     * ArrayCollisionMap}.
+     */
+    public Builder withCollisionMap(Supplier<? extends CollisionMap> collisionMapSupplier) {
+      this.collisionMapSupplier = collisionMapSupplier;
+      return this;
+    }
+
+    /**
+     * If enabled, the simulator will not step through frames in which no agent can reach an
+     * enemy. Instead it computes how many frames it takes at least until the closest agents are in
+     * range, and moves all agents for that many frames at once. Once engaged, the simulation
+     * continues with the normal frame skip. Speeds up simulations of armies approaching each other,
+     * but movement during the approach is less precise (ie. collisions are only checked at the end
+     * of each move). While ground agents are involved, all agents move at most one tile at once so
+     * the ground agents are still blocked by collisions. Fast ground agents cross a tile in about
+     * 4 frames, so with a frame skip of 4 or more only armies of flyers or slow agents benefit.
+     * Armies of flyers only move all the way at once.
+     */
+    public Builder withSkipApproach(boolean skipApproach) {
+      this.skipApproach = skipApproach;
+      return this;
+    }
+
+    /**
+     * If a pool is given, each step simulates chunks of agents in parallel using that pool. Meant
+     * for single, very large fights (ie. hundreds of agents), use {@link SimulationBatch} to run
+     * many smaller simulations in parallel instead.
+     *
+     * <p>In this mode, all behaviors see the state of the agents at the start of a step. Damage,
+     * heals and other effects on agents are collected and applied once all behaviors are done, so
+     * ie. two agents might attack the same target even if one hit would kill it. Results are still
+     * reproducible (given a seed) and do not depend on the parallelism of the pool, but differ
+     * slightly from sequential simulations. Custom behaviors must only modify the agent they
+     * simulate, only the effects of the included behaviors are deferred. The {@link
+     * SimulationRecorder} is not available to behaviors in this mode, but still records all events.
+     */
+    public Builder withParallelism(ForkJoinPool pool) {
+      this.pool = pool;
+      return this;
+    }
+
     public Simulator build() {
-      return new Simulator(frameSkip, playerABehavior, playerBBehavior);
+      return build(seed);
+    }
+
+    /** Builds a simulator using the given seed instead of the seed of this builder. */
+    Simulator build(long seed) {
+      return build(Long.valueOf(seed));
+    }
+
+    private Simulator build(Long seed) {
+      return new Simulator(
+          frameSkip,
+          playerABehavior,
+          playerBBehavior,
+          seed,
+          collisionMapSupplier.get(),
+          skipApproach,
+          pool);
     }
   }
 }
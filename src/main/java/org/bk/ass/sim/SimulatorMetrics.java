@@ -0,0 +1,136 @@
+package org.bk.ass.sim;
+
+/**
+ * Counters of the work done by a {@link Simulator} and its built-in behaviors, ie. to find out
+ * whether a slow simulation spent its time searching targets, dealing splash damage or moving
+ * agents. Attach it with {@link Simulator#setMetrics(SimulatorMetrics)}, the counters are summed
+ * over all following simulations until {@link #clear()} is called. Without an attached instance,
+ * the only cost is a null check at each counting point.
+ *
+ * <p>Distance computations and target scans only count the work done directly by the behaviors,
+ * queries of the {@link AgentGrid} are counted as a whole.
+ */
+public final class SimulatorMetrics {
+  long steps;
+  long targetScanIterations;
+  long distanceComputations;
+  long gridQueries;
+  long attacks;
+  long splashVictims;
+  long collisionRejections;
+  long deaths;
+  long behaviorNanos;
+  long removeDeadNanos;
+  long updateStatsNanos;
+
+  /** @return the number of simulated steps (see {@link Simulator#getSteps()}) */
+  public long getSteps() {
+    return steps;
+  }
+
+  /** @return the number of agents checked by behaviors while looking for targets */
+  public long getTargetScanIterations() {
+    return targetScanIterations;
+  }
+
+  /** @return the number of distances computed by behaviors */
+  public long getDistanceComputations() {
+    return distanceComputations;
+  }
+
+  /** @return the number of {@link AgentGrid} queries done by behaviors */
+  public long getGridQueries() {
+    return gridQueries;
+  }
+
+  /** @return the number of attacks (not counting splash or bounces) */
+  public long getAttacks() {
+    return attacks;
+  }
+
+  /** @return the number of agents hit by splash damage or bounces */
+  public long getSplashVictims() {
+    return splashVictims;
+  }
+
+  /** @return the number of moves which were rejected due to collision */
+  public long getCollisionRejections() {
+    return collisionRejections;
+  }
+
+  /** @return the number of removed dead agents */
+  public long getDeaths() {
+    return deaths;
+  }
+
+  /** @return the nanoseconds spent in the behaviors of both players */
+  public long getBehaviorNanos() {
+    return behaviorNanos;
+  }
+
+  /** @return the nanoseconds spent removing dead agents, including their death handlers */
+  public long getRemoveDeadNanos() {
+    return removeDeadNanos;
+  }
+
+  /** @return the nanoseconds spent moving agents and updating their stats */
+  public long getUpdateStatsNanos() {
+    return updateStatsNanos;
+  }
+
+  /** Adds the counters of the other metrics to this one, and clears the other metrics. */
+  void drain(SimulatorMetrics other) {
+    steps += other.steps;
+    targetScanIterations += other.targetScanIterations;
+    distanceComputations += other.distanceComputations;
+    gridQueries += other.gridQueries;
+    attacks += other.attacks;
+    splashVictims += other.splashVictims;
+    collisionRejections += other.collisionRejections;
+    deaths += other.deaths;
+    behaviorNanos += other.behaviorNanos;
+    removeDeadNanos += other.removeDeadNanos;
+    updateStatsNanos += other.updateStatsNanos;
+    other.clear();
+  }
+
+  public void clear() {
+    steps = 0;
+    targetScanIterations = 0;
+    distanceComputations = 0;
+    gridQueries = 0;
+    attacks = 0;
+    splashVictims = 0;
+    collisionRejections = 0;
+    deaths = 0;
+    behaviorNanos = 0;
+    removeDeadNanos = 0;
+    updateStatsNanos = 0;
+  }
+
+  @Override
+  public String toString() {
+    return "steps: "
+        + steps
+        + ", target scan iterations: "
+        + targetScanIterations
+        + ", distance computations: "
+        + distanceComputations
+        + ", grid queries: "
+        + gridQueries
+        + ", attacks: "
+        + attacks
+        + ", splash victims: "
+        + splashVictims
+        + ", collision rejections: "
+        + collisionRejections
+        + ", deaths: "
+        + deaths
+        + ", behavior ns: "
+        + behaviorNanos
+        + ", remove dead ns: "
+        + removeDeadNanos
+        + ", update stats ns: "
+        + updateStatsNanos;
+  }
+}
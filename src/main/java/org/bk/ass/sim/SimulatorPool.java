@@ -0,0 +1,88 @@
+package org.bk.ass.sim;
+
+import java.util.ArrayDeque;
+import java.util.function.Function;
+
+/**
+ * Hands out cleared {@link Simulator}s of one configuration and reclaims them, to avoid allocating
+ * a new simulator (and its collision map) for each fight. Each thread has its own free list, so no
+ * synchronization is required when using the pool from many worker threads. A simulator released
+ * by another thread than the one that acquired it is put into the free list of the releasing
+ * thread.
+ *
+ * <p>Released simulators start from the same random state as newly built ones if the builder is
+ * seeded, so results don't depend on which simulator of the pool is used.
+ *
+ * <p>Prefer {@link #withSimulator(Function)}, which always releases the simulator - even if the
+ * function throws.
+ */
+public class SimulatorPool {
+  private final Simulator.Builder builder;
+  private final int maxIdlePerThread;
+  private final ThreadLocal<ArrayDeque<Simulator>> idle =
+      ThreadLocal.withInitial(ArrayDeque::new);
+
+  /**
+   * @param builder used to create new simulators, must not be changed afterwards
+   * @param maxIdlePerThread simulators released while a thread already keeps this many are
+   *     dropped
+   */
+  public SimulatorPool(Simulator.Builder builder, int maxIdlePerThread) {
+    if (maxIdlePerThread < 0) throw new IllegalArgumentException("maxIdlePerThread must be >= 0");
+    this.builder = builder;
+    this.maxIdlePerThread = maxIdlePerThread;
+  }
+
+  public SimulatorPool(Simulator.Builder builder) {
+    this(builder, 4);
+  }
+
+  /**
+   * @return a simulator without agents, either reused from the current thread's free list or newly
+   *     built
+   */
+  public Simulator acquire() {
+    Simulator simulator = idle.get().pollFirst();
+    if (simulator == null) {
+      return builder.build();
+    }
+    simulator.released = false;
+    return simulator;
+  }
+
+  /**
+   * Resets the simulator (see {@link Simulator#reset()}), drops all references to its agents,
+   * detaches any recorder and metrics, reseeds its random source and puts it into the current
+   * thread's free list. The simulator must not be used afterwards.
+   */
+  public void release(Simulator simulator) {
+    if (simulator.released) {
+      throw new IllegalStateException("Simulator was already released");
+    }
+    simulator.released = true;
+    simulator.reset();
+    simulator.reseed();
+    simulator.clearReferences();
+    simulator.setRecorder(null);
+    simulator.setMetrics(null);
+    ArrayDeque<Simulator> freeList = idle.get();
+    if (freeList.size() < maxIdlePerThread) {
+      freeList.addFirst(simulator);
+    }
+  }
+
+  /** Acquires a simulator, applies the given function and releases the simulator afterwards. */
+  public <T> T withSimulator(Function<Simulator, T> function) {
+    Simulator simulator = acquire();
+    try {
+      return function.apply(simulator);
+    } finally {
+      release(simulator);
+    }
+  }
+
+  /** @return the number of simulators kept for reuse by the current thread */
+  public int idleOfCurrentThread() {
+    return idle.get().size();
+  }
+}
@@ -0,0 +1,104 @@
+package org.bk.ass.sim;
+
+import java.util.Arrays;
+
+/**
+ * Stores only the counts of used tiles in a small hash table, which grows with the number of tiles
+ * used. Slightly slower than the {@link ArrayCollisionMap}, but a {@link Simulator} of a small
+ * fight will only use a few KB. Clearing is proportional to the number of used tiles.
+ */
+public final class SparseCollisionMap implements CollisionMap {
+  private static final int EMPTY = -1;
+
+  private int[] keys;
+  private byte[] counts;
+  private int[] usedSlots;
+  private int used;
+
+  public SparseCollisionMap() {
+    this(32);
+  }
+
+  /** @param expectedTiles number of tiles expected to be used, the table will grow if required */
+  public SparseCollisionMap(int expectedTiles) {
+    int capacity = Integer.highestOneBit(Math.max(8, expectedTiles * 2 - 1)) << 1;
+    init(capacity);
+  }
+
+  private void init(int capacity) {
+    keys = new int[capacity];
+    Arrays.fill(keys, EMPTY);
+    counts = new byte[capacity];
+    usedSlots = new int[capacity / 2];
+    used = 0;
+  }
+
+  private int slot(int tile) {
+    int mask = keys.length - 1;
+    int slot = (tile * 0x9E3779B9 >>> 16) & mask;
+    while (keys[slot] != tile && keys[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  @Override
+  public int get(int tile) {
+    return counts[slot(tile)];
+  }
+
+  @Override
+  public void increment(int tile) {
+    int slot = slot(tile);
+    if (keys[slot] == EMPTY) {
+      if (used == usedSlots.length) {
+        grow();
+        slot = slot(tile);
+      }
+      keys[slot] = tile;
+      usedSlots[used++] = slot;
+    }
+    counts[slot]++;
+  }
+
+  @Override
+  public void decrement(int tile) {
+    int slot = slot(tile);
+    // An empty slot is not part of usedSlots, so a count stored there would never be cleared
+    if (keys[slot] == tile && counts[slot] > 0) {
+      counts[slot]--;
+    }
+  }
+
+  private void grow() {
+    int[] oldKeys = keys;
+    byte[] oldCounts = counts;
+    int[] oldUsedSlots = usedSlots;
+    int oldUsed = used;
+    int occupied = 0;
+    for (int i = 0; i < oldUsed; i++) {
+      if (oldCounts[oldUsedSlots[i]] != 0) occupied++;
+    }
+    // Tiles that are no longer occupied are dropped, only grow if most tiles are still occupied
+    init(occupied * 2 > oldUsed ? keys.length * 2 : keys.length);
+    for (int i = 0; i < oldUsed; i++) {
+      int oldSlot = oldUsedSlots[i];
+      if (oldCounts[oldSlot] != 0) {
+        int slot = slot(oldKeys[oldSlot]);
+        keys[slot] = oldKeys[oldSlot];
+        counts[slot] = oldCounts[oldSlot];
+        usedSlots[used++] = slot;
+      }
+    }
+  }
+
+  @Override
+  public void clear() {
+    for (int i = 0; i < used; i++) {
+      int slot = usedSlots[i];
+      keys[slot] = EMPTY;
+      counts[slot] = 0;
+    }
+    used = 0;
+  }
+}
@@ -0,0 +1,515 @@
+package org.bk.ass.sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.round;
+import static java.lang.Math.sqrt;
+
+/**
+ * Alternative to the {@link Simulator} for very large battles, which simulates identical agents as
+ * weighted groups ("stacks") instead of one by one. Agents with the same name and stats, which are
+ * close to each other when being added, are put into the same stack. Each stack moves as a whole
+ * and occupies a circle (its formation), which shrinks as agents of the stack die. Target
+ * selection and range checks are done once per stack, the cost of a step therefore depends on the
+ * number of stacks instead of the number of agents.
+ *
+ * <p>All agents of a stack attack the nearest enemy stack they can hit at the same time. Damage is
+ * dealt to the agents of the target stack one after another (see {@link
+ * AgentUtil#dealDamage(Agent, Weapon, Agent)}), so agents die one by one. Splash hits the expected
+ * number of other agents of the target stack within the splash radii, assuming the agents are
+ * spread evenly in the formation. Bounces hit the next agents of the target stack.
+ *
+ * <p>Agents with a death handler (ie. bunkers and carriers) are simulated as stacks of one. Their
+ * handlers are called at the end of the step they died in, agents added by a handler are put into
+ * new stacks.
+ *
+ * <p>Healing, repairing, suicide attacks, stim, kiting and collisions are not simulated. Ranged
+ * stacks are a bit stronger than in the {@link Simulator}, since all their agents are assumed to be
+ * in range at once. Use this only if simulating each agent is too slow.
+ *
+ * <p>Usage is the same as with the {@link Simulator}: add agents, simulate, check the agents. Be
+ * aware that changes to {@link Agent}s after adding them are not reflected in the simulation.
+ * Adding an agent interns its type (see {@link Agent#getType()}), like adding it to a {@link
+ * Simulator}.
+ */
+public class StackSimulator {
+  // Average distance between the centers of agents in a formation
+  private static final int AGENT_SPACING = 20;
+
+  private final List<Stack> stacksA = new ArrayList<>();
+  private final List<Stack> stacksB = new ArrayList<>();
+  // Agents which died in the current step and have a death handler
+  private final List<Agent> deathsA = new ArrayList<>();
+  private final List<Agent> deathsB = new ArrayList<>();
+  private final int frameSkip;
+  private final int stackRadius;
+
+  private StackSimulator(int frameSkip, int stackRadius) {
+    if (frameSkip < 1) throw new IllegalArgumentException("frameSkip must be >= 1");
+    if (stackRadius < 0) throw new IllegalArgumentException("stackRadius must be >= 0");
+    this.frameSkip = frameSkip;
+    this.stackRadius = stackRadius;
+  }
+
+  public StackSimulator addAgentA(Agent agent) {
+    add(stacksA, agent);
+    return this;
+  }
+
+  public StackSimulator addAgentB(Agent agent) {
+    add(stacksB, agent);
+    return this;
+  }
+
+  private void add(List<Stack> stacks, Agent agent) {
+    if (stackable(agent)) {
+      for (Stack stack : stacks) {
+        if (stack.accepts(agent, stackRadius)) {
+          stack.add(agent);
+          return;
+        }
+      }
+    }
+    Stack stack = new Stack(agent);
+    stack.add(agent);
+    stacks.add(stack);
+  }
+
+  private static boolean stackable(Agent agent) {
+    return !agent.isHealer()
+        && !agent.isRepairer()
+        && !agent.isSuicider()
+        && agent.onDeathHandler == Agent.NO_DEATH_HANDLER;
+  }
+
+  /** @return the number of stacks of player A */
+  public int getStacksA() {
+    return stacksA.size();
+  }
+
+  /** @return the number of stacks of player B */
+  public int getStacksB() {
+    return stacksB.size();
+  }
+
+  /**
+   * Returns the remaining agents of player A. The state of the agents is updated after each call to
+   * {@link #simulate(int)}.
+   */
+  public Collection<Agent> getAgentsA() {
+    return agents(stacksA);
+  }
+
+  /**
+   * Returns the remaining agents of player B. The state of the agents is updated after each call to
+   * {@link #simulate(int)}.
+   */
+  public Collection<Agent> getAgentsB() {
+    return agents(stacksB);
+  }
+
+  private static Collection<Agent> agents(List<Stack> stacks) {
+    List<Agent> result = new ArrayList<>();
+    for (Stack stack : stacks) {
+      for (int i = 0; i < stack.size; i++) {
+        result.add(stack.agents[i]);
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /** @see Simulator#evalToInt(ToIntFunction) */
+  public Simulator.IntEvaluation evalToInt(ToIntFunction<Agent> agentEval) {
+    return new Simulator.IntEvaluation(eval(stacksA, agentEval), eval(stacksB, agentEval));
+  }
+
+  private static int eval(List<Stack> stacks, ToIntFunction<Agent> agentEval) {
+    int result = 0;
+    for (Stack stack : stacks) {
+      for (int i = 0; i < stack.size; i++) {
+        result += agentEval.applyAsInt(stack.agents[i]);
+      }
+    }
+    return result;
+  }
+
+  /** @see Simulator#simulate() */
+  public int simulate() {
+    return simulate(96);
+  }
+
+  /** @see Simulator#simulate(int) */
+  public int simulate(int frames) {
+    for (Stack stack : stacksA) stack.prepare();
+    for (Stack stack : stacksB) stack.prepare();
+    if (frames > 0) frames += Math.floorMod(frameSkip - frames, frameSkip);
+    while (frames != 0 && !stacksA.isEmpty() && !stacksB.isEmpty()) {
+      frames -= frameSkip;
+      if (!step()) {
+        break;
+      }
+    }
+    for (Stack stack : stacksA) stack.export();
+    for (Stack stack : stacksB) stack.export();
+    return frames;
+  }
+
+  public void reset() {
+    stacksA.clear();
+    stacksB.clear();
+    deathsA.clear();
+    deathsB.clear();
+  }
+
+  private boolean step() {
+    boolean simRunning = false;
+    for (int i = 0; i < stacksA.size(); i++) {
+      simRunning |= simStack(stacksA.get(i), stacksB, deathsB);
+    }
+    for (int i = 0; i < stacksB.size(); i++) {
+      simRunning |= simStack(stacksB.get(i), stacksA, deathsA);
+    }
+    handleDeaths(stacksA, deathsA);
+    handleDeaths(stacksB, deathsB);
+    updateStats(stacksA);
+    updateStats(stacksB);
+    return simRunning;
+  }
+
+  private boolean simStack(Stack stack, List<Stack> enemies, List<Agent> enemyDeaths) {
+    Agent prototype = stack.prototype;
+    if (stack.size == 0) {
+      return false;
+    }
+    if (prototype.isStasised || prototype.isLockeddown) {
+      return true;
+    }
+    Stack target = null;
+    int targetDistance = Integer.MAX_VALUE;
+    for (int i = 0; i < enemies.size(); i++) {
+      Stack enemy = enemies.get(i);
+      Weapon weapon = prototype.weaponVs(enemy.prototype);
+      if (enemy.size == 0
+          || weapon.damageShifted == 0
+          || !enemy.prototype.detected
+          || enemy.prototype.isStasised
+          || stack.centerDistanceSquared(enemy) < weapon.minRangeSquared) {
+        continue;
+      }
+      int distance = stack.edgeDistance(enemy);
+      if (distance < targetDistance) {
+        target = enemy;
+        targetDistance = distance;
+      }
+    }
+    if (target == null) {
+      return false;
+    }
+    Weapon weapon = prototype.weaponVs(target.prototype);
+    if (targetDistance > weapon.maxRange) {
+      stack.moveToward(target, min(prototype.speed * frameSkip, targetDistance - weapon.maxRange));
+      return true;
+    }
+    if (stack.cooldown <= 0) {
+      stack.cooldown = prototype.maxCooldown;
+      for (int i = stack.size; i > 0 && target.size > 0; i--) {
+        hit(prototype, weapon, target, enemyDeaths);
+      }
+    }
+    return true;
+  }
+
+  private static void hit(Agent attacker, Weapon weapon, Stack target, List<Agent> deaths) {
+    Agent front = target.agents[0];
+    int damage = AgentUtil.damageVs(attacker, weapon, front);
+    if (damage < 0) {
+      return;
+    }
+    AgentUtil.applyDamage(front, weapon, damage);
+    int others = target.size - 1;
+    int splashed = 0;
+    if (others > 0) {
+      switch (weapon.splashType) {
+        case BOUNCE:
+          int bounceDamage = damage / 3;
+          splashed = min(2, others);
+          for (int i = 1; i <= splashed; i++) {
+            AgentUtil.applyDamage(target.agents[i], weapon, bounceDamage);
+            bounceDamage /= 3;
+          }
+          break;
+        case RADIAL_SPLASH:
+        case RADIAL_ENEMY_SPLASH:
+          int inner = target.agentsWithin(weapon.innerSplashRadiusSquared, others);
+          int median = target.agentsWithin(weapon.medianSplashRadiusSquared, others);
+          splashed = target.agentsWithin(weapon.outerSplashRadiusSquared, others);
+          for (int i = 1; i <= splashed; i++) {
+            int splashDamage = i <= inner ? damage : i <= median ? damage / 2 : damage / 4;
+            AgentUtil.applyDamage(target.agents[i], weapon, splashDamage);
+          }
+          break;
+        case LINE_SPLASH:
+          splashed = target.agentsWithin(weapon.innerSplashRadiusSquared, others);
+          for (int i = 1; i <= splashed; i++) {
+            AgentUtil.applyDamage(target.agents[i], weapon, damage);
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    if (splashed > 0 || front.healthShifted < 1) {
+      target.removeDead(splashed + 1, deaths);
+    }
+  }
+
+  /**
+   * Calls the death handlers of the given dead agents with all agents of their player. Agents
+   * removed by the handlers are removed from their stacks, added agents are put into new stacks.
+   */
+  private void handleDeaths(List<Stack> stacks, List<Agent> deaths) {
+    if (deaths.isEmpty()) {
+      return;
+    }
+    List<Agent> agents = new ArrayList<>(agents(stacks));
+    Set<Agent> before = Collections.newSetFromMap(new IdentityHashMap<>());
+    before.addAll(agents);
+    for (Agent agent : deaths) {
+      agent.onDeathHandler.accept(agent, agents);
+    }
+    deaths.clear();
+    Set<Agent> after = Collections.newSetFromMap(new IdentityHashMap<>());
+    after.addAll(agents);
+    for (Stack stack : stacks) {
+      stack.retain(after);
+    }
+    List<Stack> spawned = new ArrayList<>();
+    for (Agent agent : agents) {
+      if (!before.contains(agent)) {
+        add(spawned, agent);
+      }
+    }
+    for (Stack stack : spawned) {
+      stack.prepare();
+    }
+    stacks.addAll(spawned);
+  }
+
+  private void updateStats(List<Stack> stacks) {
+    for (int i = stacks.size() - 1; i >= 0; i--) {
+      Stack stack = stacks.get(i);
+      if (stack.size == 0) {
+        stacks.remove(i);
+        continue;
+      }
+      stack.cooldown -= frameSkip;
+      for (int j = 0; j < stack.size; j++) {
+        Agent agent = stack.agents[j];
+        agent.shieldsShifted = min(agent.maxShieldsShifted, agent.shieldsShifted + 7 * frameSkip);
+        if (agent.regeneratesHealth()) {
+          agent.healthShifted = min(agent.maxHealthShifted, agent.healthShifted + 4 * frameSkip);
+        }
+      }
+    }
+  }
+
+  /**
+   * Identical agents of one player. Alive agents are kept at the front of the array, the first one
+   * takes the direct hits.
+   */
+  private static class Stack {
+    final Agent prototype;
+    Agent[] agents = new Agent[4];
+    int size;
+    int initialSize;
+    int cooldown;
+    int x;
+    int y;
+    int exportedX;
+    int exportedY;
+    int initialRadius;
+
+    Stack(Agent prototype) {
+      this.prototype = prototype;
+    }
+
+    boolean accepts(Agent agent, int stackRadius) {
+      Agent other = prototype;
+      int dx = agent.x - other.x;
+      int dy = agent.y - other.y;
+      return dx * dx + dy * dy <= stackRadius * stackRadius
+          && agent.sharedType() == other.sharedType()
+          && agent.healthShifted > 0
+          && agent.maxHealthShifted == other.maxHealthShifted
+          && agent.maxShieldsShifted == other.maxShieldsShifted
+          && agent.armorShifted == other.armorShifted
+          && agent.shieldUpgrades == other.shieldUpgrades
+          && agent.maxCooldown == other.maxCooldown
+          && agent.speed == other.speed
+          && agent.elevationLevel == other.elevationLevel
+          && agent.detected == other.detected
+          && agent.burrowed == other.burrowed
+          && agent.isStasised == other.isStasised
+          && agent.isLockeddown == other.isLockeddown
+          && agent.protectedByDarkSwarm == other.protectedByDarkSwarm
+          && sameWeapon(agent.groundWeapon, other.groundWeapon)
+          && sameWeapon(agent.airWeapon, other.airWeapon);
+    }
+
+    private static boolean sameWeapon(Weapon a, Weapon b) {
+      return a.damageShifted == b.damageShifted
+          && a.maxRange == b.maxRange
+          && a.hits == b.hits
+          && a.damageTypeIndex == b.damageTypeIndex;
+    }
+
+    void add(Agent agent) {
+      if (size == agents.length) {
+        agents = Arrays.copyOf(agents, size * 2);
+      }
+      agents[size++] = agent;
+    }
+
+    /** Determines center, formation and cooldown of the stack. */
+    void prepare() {
+      long sumX = 0;
+      long sumY = 0;
+      cooldown = 0;
+      for (int i = 0; i < size; i++) {
+        sumX += agents[i].x;
+        sumY += agents[i].y;
+        cooldown = max(cooldown, agents[i].cooldown);
+      }
+      x = size > 0 ? (int) (sumX / size) : prototype.x;
+      y = size > 0 ? (int) (sumY / size) : prototype.y;
+      exportedX = x;
+      exportedY = y;
+      int spread = 0;
+      for (int i = 0; i < size; i++) {
+        int dx = agents[i].x - x;
+        int dy = agents[i].y - y;
+        spread = max(spread, dx * dx + dy * dy);
+      }
+      initialSize = size;
+      initialRadius = max((int) sqrt(spread), (int) (AGENT_SPACING * sqrt(size) / 2));
+    }
+
+    /** Moves all agents of the stack along with its center. */
+    void export() {
+      int dx = x - exportedX;
+      int dy = y - exportedY;
+      for (int i = 0; i < size; i++) {
+        agents[i].x += dx;
+        agents[i].y += dy;
+        agents[i].cooldown = max(0, cooldown);
+      }
+      exportedX = x;
+      exportedY = y;
+    }
+
+    /** The formation shrinks as agents die. */
+    int radius() {
+      return initialSize > 0 ? (int) (initialRadius * sqrt((double) size / initialSize)) : 0;
+    }
+
+    int centerDistanceSquared(Stack other) {
+      int dx = other.x - x;
+      int dy = other.y - y;
+      return dx * dx + dy * dy;
+    }
+
+    /** Distance between the closest agents of both stacks. */
+    int edgeDistance(Stack other) {
+      return max(0, (int) sqrt(centerDistanceSquared(other)) - radius() - other.radius());
+    }
+
+    void moveToward(Stack target, float distance) {
+      int dx = target.x - x;
+      int dy = target.y - y;
+      double length = sqrt((double) dx * dx + (double) dy * dy);
+      if (length > 0) {
+        x += (int) round(dx * distance / length);
+        y += (int) round(dy * distance / length);
+      }
+    }
+
+    /**
+     * @return the expected number of other agents within the given radius of an agent, if the
+     *     agents are spread evenly in the formation
+     */
+    int agentsWithin(int radiusSquared, int others) {
+      int radius = radius();
+      if (radius == 0 || radiusSquared >= radius * radius) {
+        return others;
+      }
+      return (int) round((double) others * radiusSquared / (radius * radius));
+    }
+
+    /**
+     * Removes dead agents among the first hit agents, keeping the order of the others. Dead agents
+     * with a death handler are added to deaths.
+     */
+    void removeDead(int hitAgents, List<Agent> deaths) {
+      int alive = 0;
+      for (int i = 0; i < hitAgents; i++) {
+        Agent agent = agents[i];
+        if (agent.healthShifted >= 1) {
+          agents[alive++] = agent;
+        } else if (agent.onDeathHandler != Agent.NO_DEATH_HANDLER) {
+          deaths.add(agent);
+        }
+      }
+      if (alive == hitAgents) {
+        return;
+      }
+      int newSize = size - hitAgents + alive;
+      System.arraycopy(agents, hitAgents, agents, alive, size - hitAgents);
+      Arrays.fill(agents, newSize, size, null);
+      size = newSize;
+    }
+
+    /** Removes all agents not contained in the given agents, keeping the order of the others. */
+    void retain(Set<Agent> retained) {
+      int kept = 0;
+      for (int i = 0; i < size; i++) {
+        if (retained.contains(agents[i])) {
+          agents[kept++] = agents[i];
+        }
+      }
+      Arrays.fill(agents, kept, size, null);
+      size = kept;
+    }
+  }
+
+  public static final class Builder {
+    private int frameSkip = 1;
+    private int stackRadius = 64;
+
+    public Builder withFrameSkip(int frameSkip) {
+      this.frameSkip = frameSkip;
+      return this;
+    }
+
+    /**
+     * Agents are only put into the same stack, if they are not further away than this from the
+     * first agent of the stack.
+     */
+    public Builder withStackRadius(int stackRadius) {
+      this.stackRadius = stackRadius;
+      return this;
+    }
+
+    public StackSimulator build() {
+      return new StackSimulator(frameSkip, stackRadius);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package org.bk.ass.sim;
+
+import java.util.Arrays;
+
+/**
+ * Collects the effects behaviors have on agents while a {@link Simulator} simulates them in
+ * parallel. Behaviors only see the state at the start of the step, the effects are applied in a
+ * fixed order after all behaviors are done.
+ */
+final class StepEffects {
+  static final int DAMAGE = 0;
+  static final int HEAL = 1;
+  static final int STIM = 2;
+  static final int KILL = 3;
+
+  private int[] kinds = new int[16];
+  // Event types for the recorder
+  private int[] types = new int[16];
+  private Agent[] sources = new Agent[16];
+  private Agent[] targets = new Agent[16];
+  private Weapon[] weapons = new Weapon[16];
+  private int[] values = new int[16];
+  private int size;
+
+  void add(int kind, int type, Agent source, Agent target, Weapon weapon, int value) {
+    if (size == kinds.length) {
+      int capacity = size * 2;
+      kinds = Arrays.copyOf(kinds, capacity);
+      types = Arrays.copyOf(types, capacity);
+      sources = Arrays.copyOf(sources, capacity);
+      targets = Arrays.copyOf(targets, capacity);
+      weapons = Arrays.copyOf(weapons, capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+    kinds[size] = kind;
+    types[size] = type;
+    sources[size] = source;
+    targets[size] = target;
+    weapons[size] = weapon;
+    values[size] = value;
+    size++;
+  }
+
+  /**
+   * Applies all collected effects in the order they were added and clears them afterwards.
+   *
+   * @param context applies the effects immediately, must not defer them itself
+   */
+  void applyTo(SimulationContext context) {
+    for (int i = 0; i < size; i++) {
+      Agent target = targets[i];
+      switch (kinds[i]) {
+        case DAMAGE:
+          context.damage(types[i], sources[i], target, weapons[i], values[i]);
+          break;
+        case HEAL:
+          context.heal(types[i], sources[i], target, values[i]);
+          break;
+        case STIM:
+          target.consumeHealth(Agent.STIM_ENERGY_COST_SHIFTED);
+          if (context.recorder != null) {
+            context.recorder.record(SimulationRecorder.STIM, target, null, target.getHealth(), 0);
+          }
+          break;
+        case KILL:
+          context.kill(target);
+          break;
+        default:
+          throw new IllegalStateException("Unknown effect " + kinds[i]);
+      }
+    }
+    clear();
+  }
+
+  void clear() {
+    Arrays.fill(sources, 0, size, null);
+    Arrays.fill(targets, 0, size, null);
+    Arrays.fill(weapons, 0, size, null);
+    size = 0;
+  }
+}
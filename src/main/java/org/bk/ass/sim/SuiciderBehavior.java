@@ -3,32 +3,78 @@ package org.bk.ass.sim;
 import org.bk.ass.collection.UnorderedCollection;
 import org.bk.ass.sim.Simulator.Behavior;
 
+import java.util.function.BiPredicate;
+
 import static org.bk.ass.sim.AgentUtil.*;
 
 public class SuiciderBehavior implements Behavior {
+  private static final BiPredicate<Agent, Agent> TARGETABLE =
+      (agent, enemy) ->
+          enemy.healthShifted >= 1 && agent.weaponVs(enemy).damageShifted != 0 && enemy.detected;
+  private static final BiPredicate<Agent, Agent> TARGETABLE_IN_REACH =
+      (agent, enemy) ->
+          TARGETABLE.test(agent, enemy) && distanceSquared(agent, enemy) <= agent.speedSquared;
+
+  @Override
+  public boolean simUnit(
+          int frameSkip,
+          Agent agent,
+          UnorderedCollection<Agent> allies,
+          UnorderedCollection<Agent> enemies) {
+    return simUnit(frameSkip, agent, allies, enemies, SimulationContext.standalone());
+  }
 
   @Override
   public boolean simUnit(
-          int frameSkip, Agent agent, UnorderedCollection<Agent> allies, UnorderedCollection<Agent> enemies) {
+          int frameSkip,
+          Agent agent,
+          UnorderedCollection<Agent> allies,
+          UnorderedCollection<Agent> enemies,
+          SimulationContext context) {
     // Don't check for lockdown - I believe there are no suiciders which can be locked down
     if (agent.isStasised) return false;
     Agent selectedEnemy = null;
     int selectedDistanceSquared = Integer.MAX_VALUE;
-    for (int i = enemies.size() - 1; i >= 0; i--) {
-      Agent enemy = enemies.get(i);
-      Weapon wpn = agent.weaponVs(enemy);
-      if (enemy.healthShifted >= 1 && wpn.damageShifted != 0 && enemy.detected) {
-        int distance = distanceSquared(agent, enemy);
-        if (distance < selectedDistanceSquared) {
-          selectedDistanceSquared = distance;
-          selectedEnemy = enemy;
-
-          // If we can hit it this frame, we're done searching
-          if (selectedDistanceSquared <= agent.speedSquared) {
-            break;
+    // Only reported if metrics are collected
+    int scanned = 0;
+    int distances = 0;
+    int gridQueries = 0;
+    if (!context.useGrid(enemies)
+        || context.enemyGrid.anyWithin(
+            agent, (int) Math.ceil(agent.speed), TARGETABLE_IN_REACH)) {
+      gridQueries = context.useGrid(enemies) ? 1 : 0;
+      for (int i = enemies.size() - 1; i >= 0; i--) {
+        scanned++;
+        Agent enemy = enemies.get(i);
+        Weapon wpn = agent.weaponVs(enemy);
+        if (enemy.healthShifted >= 1 && wpn.damageShifted != 0 && enemy.detected) {
+          distances++;
+          int distance = distanceSquared(agent, enemy);
+          if (distance < selectedDistanceSquared) {
+            selectedDistanceSquared = distance;
+            selectedEnemy = enemy;
+
+            // If we can hit it this frame, we're done searching
+            if (selectedDistanceSquared <= agent.speedSquared) {
+              break;
+            }
           }
         }
       }
+    } else {
+      // Nothing to hit this frame, so the search would select the closest enemy
+      gridQueries = 2;
+      selectedEnemy = context.enemyGrid.nearest(agent, null, TARGETABLE);
+      if (selectedEnemy != null) {
+        distances++;
+        selectedDistanceSquared = distanceSquared(agent, selectedEnemy);
+      }
+    }
+    SimulatorMetrics metrics = context.metrics;
+    if (metrics != null) {
+      metrics.targetScanIterations += scanned;
+      metrics.distanceComputations += distances;
+      metrics.gridQueries += gridQueries;
     }
 
     if (selectedEnemy == null) {
@@ -38,8 +84,14 @@ public class SuiciderBehavior implements Behavior {
     moveToward(frameSkip, agent, selectedEnemy, (float) Math.sqrt(selectedDistanceSquared));
 
     if (selectedDistanceSquared <= agent.speedSquared) {
-      dealDamage(agent, agent.weaponVs(selectedEnemy), selectedEnemy);
-      agent.healthShifted = 0;
+      Weapon weapon = agent.weaponVs(selectedEnemy);
+      context.damage(
+          SimulationRecorder.ATTACK,
+          agent,
+          selectedEnemy,
+          weapon,
+          damageVs(agent, weapon, selectedEnemy));
+      context.kill(agent);
     }
     return true;
   }
@@ -8,26 +8,32 @@ public class Weapon {
   int damageShifted;
   int hits;
   int innerSplashRadius;
+  // Maximum of all splash radii
+  int splashRadius;
   int innerSplashRadiusSquared;
   int medianSplashRadiusSquared;
   int outerSplashRadiusSquared;
 
   DamageType damageType;
+  int damageTypeIndex = DamageTable.NO_DAMAGE_TYPE;
   SplashType splashType;
 
   public Weapon setOuterSplashRadius(int outerSplashRadiusSquared) {
     this.outerSplashRadiusSquared = outerSplashRadiusSquared * outerSplashRadiusSquared;
+    this.splashRadius = Math.max(splashRadius, outerSplashRadiusSquared);
     return this;
   }
 
   public Weapon setMedianSplashRadius(int medianSplashRadiusSquared) {
     this.medianSplashRadiusSquared = medianSplashRadiusSquared * medianSplashRadiusSquared;
+    this.splashRadius = Math.max(splashRadius, medianSplashRadiusSquared);
     return this;
   }
 
   public Weapon setInnerSplashRadius(int innerSplashRadiusSquared) {
     this.innerSplashRadius = innerSplashRadiusSquared;
     this.innerSplashRadiusSquared = innerSplashRadiusSquared * innerSplashRadiusSquared;
+    this.splashRadius = Math.max(splashRadius, innerSplashRadiusSquared);
     return this;
   }
 
@@ -60,6 +66,7 @@ public class Weapon {
 
   public Weapon setDamageType(DamageType damageType) {
     this.damageType = damageType;
+    this.damageTypeIndex = DamageTable.damageTypeIndex(damageType);
     return this;
   }
 }
@@ -0,0 +1,46 @@
+package org.bk.ass.sim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArrayCollisionMapTest {
+
+  private ArrayCollisionMap sut = new ArrayCollisionMap();
+
+  @Test
+  void shouldClearUsedTiles() {
+    // GIVEN
+    for (int i = 0; i < 100; i++) {
+      sut.increment(i);
+      sut.increment(i * 2048);
+    }
+
+    // WHEN
+    sut.clear();
+
+    // THEN
+    for (int i = 0; i < 100; i++) {
+      assertThat(sut.get(i)).isZero();
+      assertThat(sut.get(i * 2048)).isZero();
+    }
+  }
+
+  @Test
+  void shouldClearTilesUsedAfterClearing() {
+    // GIVEN
+    sut.increment(5);
+    sut.clear();
+    sut.increment(5);
+    sut.increment(6);
+    sut.decrement(6);
+    sut.increment(6);
+
+    // WHEN
+    sut.clear();
+
+    // THEN
+    assertThat(sut.get(5)).isZero();
+    assertThat(sut.get(6)).isZero();
+  }
+}
@@ -0,0 +1,127 @@
+package org.bk.ass.sim;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openbw.bwapi4j.test.BWDataProvider;
+import org.openbw.bwapi4j.type.UnitType;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BWAPI4JAgentFactoryTest {
+
+  private BWAPI4JAgentFactory sut = new BWAPI4JAgentFactory(null);
+
+  @BeforeAll
+  static void setup() throws Exception {
+    BWDataProvider.injectValues();
+  }
+
+  @Test
+  void shouldShareWeaponsOfSameUnitType() {
+    // GIVEN
+
+    // WHEN
+    Agent first = sut.of(UnitType.Terran_Marine);
+    Agent second = sut.of(UnitType.Terran_Marine);
+
+    // THEN
+    assertThat(first).isNotSameAs(second);
+    assertThat(first.groundWeapon).isSameAs(second.groundWeapon);
+    assertThat(first.airWeapon).isSameAs(second.airWeapon);
+  }
+
+  @Test
+  void shouldNotShareWeaponsIfUpgradesDiffer() {
+    // GIVEN
+
+    // WHEN
+    Agent unupgraded = sut.of(UnitType.Terran_Marine);
+    Agent upgraded = sut.of(UnitType.Terran_Marine, 1, 0, 32, 0, false, false);
+
+    // THEN
+    assertThat(upgraded.groundWeapon).isNotSameAs(unupgraded.groundWeapon);
+    assertThat(upgraded.groundWeapon.maxRangeSquared)
+        .isGreaterThan(unupgraded.groundWeapon.maxRangeSquared);
+  }
+
+  @Test
+  void shouldNotShareWeaponsIfRangeUpgradesDifferByMoreThanAByte() {
+    // GIVEN
+    Agent unupgraded = sut.of(UnitType.Terran_Marine);
+
+    // WHEN
+    Agent upgraded = sut.of(UnitType.Terran_Marine, 0, 0, 4096, 0, false, false);
+
+    // THEN
+    assertThat(upgraded.groundWeapon).isNotSameAs(unupgraded.groundWeapon);
+    assertThat(upgraded.groundWeapon.maxRange).isGreaterThan(unupgraded.groundWeapon.maxRange);
+  }
+
+  @Test
+  void shouldNotShareStateOfAgents() {
+    // GIVEN
+    Agent first = sut.of(UnitType.Zerg_Zergling).setX(100);
+
+    // WHEN
+    first.setHealth(5);
+    Agent second = sut.of(UnitType.Zerg_Zergling);
+
+    // THEN
+    assertThat(second.getHealth()).isEqualTo(35);
+    assertThat(second.x).isEqualTo(0);
+  }
+
+  @Test
+  void shouldShareTypeOfSameUnitType() {
+    // GIVEN
+
+    // WHEN
+    Agent first = sut.of(UnitType.Zerg_Mutalisk);
+    Agent second = sut.of(UnitType.Zerg_Mutalisk);
+    Agent copy = new Agent(first);
+
+    // THEN
+    assertThat(first.getType()).isSameAs(second.getType());
+    assertThat(copy.getType()).isSameAs(first.getType());
+    assertThat(first.isFlyer()).isTrue();
+    assertThat(first.regeneratesHealth()).isTrue();
+    assertThat(first.getType().getSize()).isEqualTo(UnitSize.SMALL);
+  }
+
+  @Test
+  void shouldNotChangeOtherAgentsWhenChangingTraits() {
+    // GIVEN
+    Agent first = sut.of(UnitType.Terran_Marine);
+    Agent second = sut.of(UnitType.Terran_Marine);
+
+    // WHEN
+    first.setFlyer(true);
+
+    // THEN
+    assertThat(first.isFlyer()).isTrue();
+    assertThat(second.isFlyer()).isFalse();
+    assertThat(first.getType()).isNotSameAs(second.getType());
+    assertThat(first.getName()).isEqualTo(second.getName());
+  }
+
+  @Test
+  void shouldModifyTypeInPlaceUntilAgentIsCopied() {
+    // GIVEN
+    Agent agent = new Agent("Test");
+    AgentType ownType = agent.type;
+
+    // WHEN
+    agent.setFlyer(true).setHealer(true).setStopFrames(3);
+    Agent copy = new Agent(agent);
+    agent.setFlyer(false);
+
+    // THEN
+    assertThat(copy.type).isSameAs(ownType);
+    assertThat(copy.isFlyer()).isTrue();
+    assertThat(copy.isHealer()).isTrue();
+    assertThat(agent.type).isNotSameAs(ownType);
+    assertThat(agent.isFlyer()).isFalse();
+    assertThat(agent.isHealer()).isTrue();
+    assertThat(agent.getType().getStopFrames()).isEqualTo(3);
+  }
+}
@@ -0,0 +1,108 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.sim.BattlefieldSimulator.Builder;
+import org.bk.ass.sim.BattlefieldSimulator.Engagement;
+import org.bk.ass.sim.BattlefieldSimulator.Result;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openbw.bwapi4j.test.BWDataProvider;
+import org.openbw.bwapi4j.type.UnitType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BattlefieldSimulatorTest {
+
+  private BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+  private ForkJoinPool pool = new ForkJoinPool(2);
+
+  @BeforeAll
+  static void setup() throws Exception {
+    BWDataProvider.injectValues();
+  }
+
+  @AfterEach
+  void shutdownPool() {
+    pool.shutdown();
+  }
+
+  @Test
+  void shouldSplitFarApartFights() {
+    // GIVEN
+    BattlefieldSimulator sut = new Builder().build();
+    List<Agent> agentsA = new ArrayList<>();
+    List<Agent> agentsB = new ArrayList<>();
+    addFight(agentsA, agentsB, 500);
+    addFight(agentsA, agentsB, 4000);
+
+    // WHEN
+    List<Engagement> engagements = sut.split(agentsA, agentsB);
+
+    // THEN
+    assertThat(engagements).hasSize(2);
+    for (Engagement engagement : engagements) {
+      assertThat(engagement.getSimulator().getAgentsA()).hasSize(4);
+      assertThat(engagement.getSimulator().getAgentsB()).hasSize(6);
+    }
+  }
+
+  @Test
+  void shouldNotSplitAgentsWhichCanReachEachOther() {
+    // GIVEN
+    BattlefieldSimulator sut = new Builder().withFrames(240).build();
+    List<Agent> agentsA = new ArrayList<>();
+    List<Agent> agentsB = new ArrayList<>();
+    agentsA.add(factory.of(UnitType.Terran_Marine).setX(500).setY(500));
+    agentsB.add(factory.of(UnitType.Zerg_Zergling).setX(500).setY(1500));
+
+    // WHEN
+    List<Engagement> engagements = sut.split(agentsA, agentsB);
+
+    // THEN
+    assertThat(engagements).hasSize(1);
+  }
+
+  @Test
+  void shouldAggregateEvaluationsOfAllEngagements() {
+    // GIVEN
+    BattlefieldSimulator sut = new Builder().withPool(pool).build();
+    List<Agent> agentsA = new ArrayList<>();
+    List<Agent> agentsB = new ArrayList<>();
+    addFight(agentsA, agentsB, 500);
+    addFight(agentsA, agentsB, 4000);
+    agentsA.add(factory.of(UnitType.Terran_Marine).setX(7000).setY(7000));
+
+    Simulator simulator = new Simulator.Builder().build();
+    List<Agent> expectedA = new ArrayList<>();
+    List<Agent> expectedB = new ArrayList<>();
+    addFight(expectedA, expectedB, 500);
+    expectedA.forEach(simulator::addAgentA);
+    expectedB.forEach(simulator::addAgentB);
+    simulator.simulate(96);
+
+    // WHEN
+    Result result = sut.simulate(agentsA, agentsB, Agent::getHealth);
+
+    // THEN
+    assertThat(result.getEngagements()).hasSize(3);
+    assertThat(result.before.evalA).isEqualTo(4 * 40 * 2 + 40);
+    assertThat(result.before.evalB).isEqualTo(6 * 35 * 2);
+    assertThat(result.after.evalA)
+        .isEqualTo(simulator.evalToInt(Agent::getHealth).evalA * 2 + 40);
+    assertThat(result.after.evalB).isEqualTo(simulator.evalToInt(Agent::getHealth).evalB * 2);
+  }
+
+  private void addFight(List<Agent> agentsA, List<Agent> agentsB, int position) {
+    for (int i = 0; i < 4; i++) {
+      agentsA.add(factory.of(UnitType.Terran_Marine).setX(position + i * 16).setY(position));
+    }
+    for (int i = 0; i < 6; i++) {
+      agentsB.add(
+          factory.of(UnitType.Zerg_Zergling).setX(position + i * 16).setY(position + 100));
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package org.bk.ass.sim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DamageTableTest {
+
+  @Test
+  void shouldReduceDamageLikeDividing() {
+    // GIVEN
+    int[] damages = {-1025, -513, -3, -1, 0, 1, 3, 255, 256, 5000};
+
+    for (DamageType damageType : DamageType.values()) {
+      for (UnitSize size : UnitSize.values()) {
+        int divisor = divisor(damageType, size);
+        for (int damage : damages) {
+          // WHEN
+          int reduced =
+              DamageTable.reduce(
+                  damage, DamageTable.damageTypeIndex(damageType) + DamageTable.sizeIndex(size));
+
+          // THEN
+          assertThat(reduced).isEqualTo(damage / divisor);
+        }
+      }
+    }
+  }
+
+  @Test
+  void shouldNotReduceDamageIfTypeOrSizeIsNotSet() {
+    // GIVEN
+    int index = DamageTable.damageTypeIndex(null) + DamageTable.sizeIndex(null);
+
+    // WHEN
+    int reduced = DamageTable.reduce(1000, index);
+
+    // THEN
+    assertThat(reduced).isEqualTo(1000);
+  }
+
+  private int divisor(DamageType damageType, UnitSize size) {
+    if (damageType == DamageType.CONCUSSIVE) {
+      return size == UnitSize.MEDIUM ? 2 : size == UnitSize.LARGE ? 4 : 1;
+    }
+    if (damageType == DamageType.EXPLOSIVE) {
+      return size == UnitSize.SMALL ? 2 : size == UnitSize.MEDIUM ? 4 : 1;
+    }
+    return 1;
+  }
+}
@@ -1,6 +1,7 @@
 package org.bk.ass.sim;
 
 import io.jenetics.util.IntRange;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.openbw.bwapi4j.test.BWDataProvider;
@@ -10,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -22,12 +24,18 @@ import static org.assertj.core.api.Assertions.assertThat;
 class EvaluatorTest {
   Evaluator evaluator = new Evaluator();
   private BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+  private ForkJoinPool pool = new ForkJoinPool(4);
 
   @BeforeAll
   static void setup() throws Exception {
     BWDataProvider.injectValues();
   }
 
+  @AfterEach
+  void shutdownPool() {
+    pool.shutdown();
+  }
+
   @Test
   void noAgentsShouldNotResultInNaN() {
     // WHEN
@@ -365,4 +373,111 @@ class EvaluatorTest {
     // THEN
     assertThat(result).isGreaterThan(0.9);
   }
+
+  @Test
+  void shouldEvaluateAllCandidatesLikeSingleEvaluations() {
+    // GIVEN
+    List<Agent> b =
+        Arrays.asList(
+            factory.of(UnitType.Zerg_Hydralisk),
+            factory.of(UnitType.Zerg_Mutalisk),
+            factory.of(UnitType.Zerg_Lurker));
+    List<List<Agent>> candidates = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      List<Agent> candidate = new ArrayList<>();
+      for (int j = 0; j <= i % 5; j++) {
+        candidate.add(factory.of(UnitType.Terran_Marine));
+      }
+      if (i % 3 == 0) {
+        candidate.add(factory.of(UnitType.Terran_Medic));
+      }
+      if (i % 4 == 0) {
+        candidate.add(factory.of(UnitType.Protoss_Carrier));
+      }
+      candidates.add(candidate);
+    }
+    candidates.add(Collections.emptyList());
+
+    // WHEN
+    double[] result = evaluator.evaluateAll(candidates, b, pool);
+
+    // THEN
+    for (int i = 0; i < candidates.size(); i++) {
+      assertThat(result[i]).isEqualTo(evaluator.evaluate(candidates.get(i), b));
+    }
+  }
+
+  @Test
+  void shouldEvaluateSameWithReusedContext() {
+    // GIVEN
+    Evaluator.EvaluationContext context = evaluator.newContext();
+    List<Agent> a =
+        Arrays.asList(
+            factory.of(UnitType.Terran_Marine),
+            factory.of(UnitType.Terran_Medic),
+            factory.of(UnitType.Terran_Goliath));
+    List<Agent> b =
+        Arrays.asList(factory.of(UnitType.Protoss_Carrier), factory.of(UnitType.Protoss_Zealot));
+
+    // WHEN
+    double first = evaluator.evaluate(a, b, context);
+    double second = evaluator.evaluate(b, a, context);
+    double third = evaluator.evaluate(a, b, context);
+
+    // THEN
+    assertThat(first).isEqualTo(evaluator.evaluate(a, b));
+    assertThat(second).isEqualTo(evaluator.evaluate(b, a));
+    assertThat(third).isEqualTo(first);
+  }
+
+  @Test
+  void shouldEvaluateSessionLikeEvaluator() {
+    // GIVEN
+    Evaluator.EvaluationSession session = evaluator.newSession();
+    List<Agent> a =
+        new ArrayList<>(
+            Arrays.asList(
+                factory.of(UnitType.Terran_Marine),
+                factory.of(UnitType.Terran_Medic),
+                factory.of(UnitType.Terran_Bunker)));
+    List<Agent> b =
+        Arrays.asList(factory.of(UnitType.Protoss_Carrier), factory.of(UnitType.Protoss_Zealot));
+    a.forEach(session::addA);
+    b.forEach(session::addB);
+    Agent goliath = factory.of(UnitType.Terran_Goliath);
+
+    // WHEN
+    double initial = session.evaluate();
+    session.addA(goliath);
+    double withGoliath = session.evaluate();
+    session.removeA(goliath);
+    session.removeA(a.get(0));
+
+    // THEN
+    assertThat(initial).isEqualTo(evaluator.evaluate(a, b));
+    a.add(goliath);
+    assertThat(withGoliath).isEqualTo(evaluator.evaluate(a, b));
+    assertThat(session.evaluate()).isEqualTo(evaluator.evaluate(a.subList(1, 3), b));
+    assertThat(session.sizeA()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldNotAddOrRemoveAgentsTwiceInSession() {
+    // GIVEN
+    Evaluator.EvaluationSession session = evaluator.newSession();
+    Agent marine = factory.of(UnitType.Terran_Marine);
+    session.addA(marine);
+    session.addB(factory.of(UnitType.Zerg_Zergling));
+
+    // WHEN
+    boolean addedTwice = session.addA(marine);
+    boolean removed = session.removeA(marine);
+    boolean removedTwice = session.removeA(marine);
+
+    // THEN
+    assertThat(addedTwice).isFalse();
+    assertThat(removed).isTrue();
+    assertThat(removedTwice).isFalse();
+    assertThat(session.evaluate()).isEqualTo(0.0);
+  }
 }
@@ -0,0 +1,79 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.sim.LanchesterEstimator.Estimate;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openbw.bwapi4j.test.BWDataProvider;
+import org.openbw.bwapi4j.type.UnitType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LanchesterEstimatorTest {
+
+  private LanchesterEstimator sut = new LanchesterEstimator();
+  private BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+
+  @BeforeAll
+  static void setup() throws Exception {
+    BWDataProvider.injectValues();
+  }
+
+  @Test
+  void shouldPredictWinnerAndSurvivors() {
+    // GIVEN
+    List<Agent> agentsA = agents(UnitType.Terran_Marine, 12);
+    agentsA.addAll(agents(UnitType.Terran_Firebat, 2));
+    List<Agent> agentsB = agents(UnitType.Zerg_Zergling, 8);
+
+    // WHEN
+    Estimate estimate = sut.estimate(agentsA, agentsB, 24 * 60);
+
+    // THEN
+    assertThat(estimate.frames).isBetween(1, 24 * 60 - 1);
+    assertThat(estimate.getRemainingB().get(UnitType.Zerg_Zergling.name())).isEqualTo(0.0);
+    assertThat(estimate.getRemainingA().get(UnitType.Terran_Marine.name()))
+        .isBetween(6.0, 12.0);
+    assertThat(estimate.getRemainingA()).containsKey(UnitType.Terran_Firebat.name());
+    assertThat(estimate.totalRemainingA()).isGreaterThan(6.0);
+  }
+
+  @Test
+  void shouldAbsorbDamageWithShieldsFirst() {
+    // GIVEN
+    List<Agent> agentsA = agents(UnitType.Protoss_Zealot, 4);
+    List<Agent> agentsB = agents(UnitType.Terran_Marine, 4);
+
+    // WHEN
+    Estimate estimate = sut.estimate(agentsA, agentsB, 24);
+
+    // THEN
+    assertThat(estimate.getRemainingA().get(UnitType.Protoss_Zealot.name())).isEqualTo(4.0);
+    assertThat(estimate.getRemainingB().get(UnitType.Terran_Marine.name())).isLessThan(4.0);
+  }
+
+  @Test
+  void shouldStopIfNoSideCanDamageTheOther() {
+    // GIVEN
+    List<Agent> agentsA = agents(UnitType.Zerg_Zergling, 5);
+    List<Agent> agentsB = agents(UnitType.Zerg_Overlord, 2);
+
+    // WHEN
+    Estimate estimate = sut.estimate(agentsA, agentsB, 24 * 60);
+
+    // THEN
+    assertThat(estimate.frames).isZero();
+    assertThat(estimate.totalRemainingA()).isEqualTo(5.0);
+    assertThat(estimate.totalRemainingB()).isEqualTo(2.0);
+  }
+
+  private List<Agent> agents(UnitType type, int amount) {
+    List<Agent> result = new ArrayList<>();
+    for (int i = 0; i < amount; i++) {
+      result.add(factory.of(type));
+    }
+    return result;
+  }
+}
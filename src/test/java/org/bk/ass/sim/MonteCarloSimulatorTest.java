@@ -0,0 +1,143 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.collection.UnorderedCollection;
+import org.bk.ass.sim.MonteCarloSimulator.Builder;
+import org.bk.ass.sim.MonteCarloSimulator.Result;
+import org.bk.ass.sim.Simulator.Behavior;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openbw.bwapi4j.test.BWDataProvider;
+import org.openbw.bwapi4j.type.UnitType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MonteCarloSimulatorTest {
+
+  private BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+  private ForkJoinPool pool = new ForkJoinPool(4);
+
+  @BeforeAll
+  static void setup() throws Exception {
+    BWDataProvider.injectValues();
+  }
+
+  @AfterEach
+  void shutdownPool() {
+    pool.shutdown();
+  }
+
+  @Test
+  void shouldEstimateClearWinAndStopEarly() {
+    // GIVEN
+    MonteCarloSimulator sut =
+        new Builder().withPool(pool).withMinRuns(8).withMaxRuns(200).build();
+    List<Agent> agentsA = agents(UnitType.Protoss_Dragoon, 6, 100);
+    List<Agent> agentsB = agents(UnitType.Zerg_Zergling, 4, 200);
+
+    // WHEN
+    Result result = sut.estimate(agentsA, agentsB, Agent::getHealth);
+
+    // THEN
+    assertThat(result.winProbability()).isEqualTo(1.0);
+    assertThat(result.runs).isGreaterThan(8).isLessThan(200);
+    assertThat(result.winProbabilityMargin()).isPositive().isLessThanOrEqualTo(0.05);
+    assertThat(result.mean).isGreaterThan(0);
+  }
+
+  @Test
+  void shouldNotModifySimulatorBuilder() {
+    // GIVEN
+    AtomicLong probedRandom = new AtomicLong();
+    Behavior probe =
+        new Behavior() {
+          @Override
+          public boolean simUnit(
+              int frameSkip,
+              Agent agent,
+              UnorderedCollection<Agent> allies,
+              UnorderedCollection<Agent> enemies) {
+            return false;
+          }
+
+          @Override
+          public boolean simUnit(
+              int frameSkip,
+              Agent agent,
+              UnorderedCollection<Agent> allies,
+              UnorderedCollection<Agent> enemies,
+              SimulationContext context) {
+            if ("probe".equals(agent.getUserObject())) {
+              probedRandom.set(context.getRandom().nextLong());
+            }
+            return false;
+          }
+        };
+    Simulator.Builder simulatorBuilder =
+        new Simulator.Builder().withPlayerABehavior(probe).withSeed(7);
+    long expected = probeRandom(simulatorBuilder, probedRandom);
+    MonteCarloSimulator sut =
+        new Builder()
+            .withSimulatorBuilder(simulatorBuilder)
+            .withPool(pool)
+            .withMinRuns(8)
+            .withMaxRuns(8)
+            .build();
+
+    // WHEN
+    sut.estimate(
+        agents(UnitType.Protoss_Dragoon, 2, 100),
+        agents(UnitType.Terran_Marine, 2, 200),
+        Agent::getHealth);
+
+    // THEN
+    assertThat(probeRandom(simulatorBuilder, probedRandom)).isEqualTo(expected);
+  }
+
+  private long probeRandom(Simulator.Builder simulatorBuilder, AtomicLong probedRandom) {
+    Simulator simulator = simulatorBuilder.build();
+    simulator.addAgentA(factory.of(UnitType.Terran_Marine).setUserObject("probe"));
+    simulator.addAgentB(factory.of(UnitType.Terran_Marine));
+    simulator.simulate(1);
+    return probedRandom.get();
+  }
+
+  @Test
+  void shouldBeReproducibleAndNotModifyAgents() {
+    // GIVEN
+    MonteCarloSimulator sut =
+        new Builder()
+            .withPool(pool)
+            .withMinRuns(32)
+            .withMaxRuns(32)
+            .withSeed(42)
+            .build();
+    List<Agent> agentsA = agents(UnitType.Terran_Marine, 6, 100);
+    List<Agent> agentsB = agents(UnitType.Zerg_Zergling, 6, 200);
+
+    // WHEN
+    Result first = sut.estimate(agentsA, agentsB, Agent::getHealth);
+    Result second = sut.estimate(agentsA, agentsB, Agent::getHealth);
+
+    // THEN
+    assertThat(first.runs).isEqualTo(32);
+    assertThat(second.wins).isEqualTo(first.wins);
+    assertThat(second.mean).isEqualTo(first.mean);
+    assertThat(second.variance).isEqualTo(first.variance);
+    assertThat(agentsA).extracting(Agent::getHealth).containsOnly(40);
+    assertThat(agentsA).extracting(a -> a.y).containsOnly(100);
+  }
+
+  private List<Agent> agents(UnitType type, int amount, int y) {
+    List<Agent> result = new ArrayList<>();
+    for (int i = 0; i < amount; i++) {
+      result.add(factory.of(type).setX(100 + i * 20).setY(y));
+    }
+    return result;
+  }
+}
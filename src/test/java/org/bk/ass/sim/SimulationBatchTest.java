@@ -0,0 +1,75 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.sim.Simulator.Builder;
+import org.bk.ass.sim.Simulator.IntEvaluation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openbw.bwapi4j.test.BWDataProvider;
+import org.openbw.bwapi4j.type.UnitType;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SimulationBatchTest {
+
+  private ForkJoinPool pool = new ForkJoinPool(4);
+  private SimulationBatch batch = new SimulationBatch(pool);
+  private BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+
+  @BeforeAll
+  static void setup() throws Exception {
+    BWDataProvider.injectValues();
+  }
+
+  @AfterEach
+  void shutdownPool() {
+    pool.shutdown();
+  }
+
+  @Test
+  void shouldMatchSequentialSimulation() {
+    // GIVEN
+    Simulator[] sequential = new Simulator[16];
+    for (int i = 0; i < sequential.length; i++) {
+      sequential[i] = scenario(i);
+      batch.add(scenario(i));
+    }
+
+    // WHEN
+    int[] framesLeft = batch.simulate(-1);
+
+    // THEN
+    List<IntEvaluation> evaluations = batch.evalToInt(agent -> agent.getHealth());
+    for (int i = 0; i < sequential.length; i++) {
+      assertThat(framesLeft[i]).isEqualTo(sequential[i].simulate(-1));
+      assertThat(evaluations.get(i).delta())
+          .isEqualTo(sequential[i].evalToInt(agent -> agent.getHealth()).delta());
+    }
+  }
+
+  @Test
+  void shouldSimulateEmptyBatch() {
+    // GIVEN
+
+    // WHEN
+    int[] framesLeft = batch.simulate(24);
+
+    // THEN
+    assertThat(framesLeft).isEmpty();
+    assertThat(batch.evalToInt(agent -> 1)).isEmpty();
+  }
+
+  private Simulator scenario(int marines) {
+    Simulator simulator = new Builder().build();
+    for (int i = 0; i <= marines; i++) {
+      simulator.addAgentA(factory.of(UnitType.Terran_Marine).setX(100 + i * 10).setY(100));
+    }
+    for (int i = 0; i < 8; i++) {
+      simulator.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(100 + i * 10).setY(300));
+    }
+    return simulator;
+  }
+}
@@ -0,0 +1,149 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.sim.SimulationCache.Outcome;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openbw.bwapi4j.test.BWDataProvider;
+import org.openbw.bwapi4j.type.UnitType;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SimulationCacheTest {
+
+  private SimulationCache sut = new SimulationCache();
+  private BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+
+  @BeforeAll
+  static void setup() throws Exception {
+    BWDataProvider.injectValues();
+  }
+
+  @Test
+  void shouldSimulateAndCacheOutcome() {
+    // GIVEN
+    Simulator simulator = fight(0, 0, false);
+
+    // WHEN
+    Outcome outcome = sut.simulate(simulator, 96, Simulator.HEALTH_AND_SHIELD);
+
+    // THEN
+    assertThat(outcome.after.evalA)
+        .isEqualTo(simulator.evalToInt(Simulator.HEALTH_AND_SHIELD).evalA);
+    assertThat(outcome.before.evalA).isGreaterThan(outcome.after.evalA);
+    assertThat(outcome.getSurvivorsA().get(UnitType.Protoss_Dragoon.name())).isEqualTo(4);
+    assertThat(sut.getMisses()).isEqualTo(1);
+    assertThat(sut.size()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldReturnCachedOutcomeForSlightlyMovedAndReorderedAgents() {
+    // GIVEN
+    Outcome first = sut.simulate(fight(0, 0, false), 96, Simulator.HEALTH_AND_SHIELD);
+    Simulator moved = fight(3, 2, true);
+
+    // WHEN
+    Outcome second = sut.simulate(moved, 96, Simulator.HEALTH_AND_SHIELD);
+
+    // THEN
+    assertThat(second).isSameAs(first);
+    assertThat(moved.evalToInt(Simulator.HEALTH_AND_SHIELD).evalB)
+        .isEqualTo(first.before.evalB);
+    assertThat(sut.getHits()).isEqualTo(1);
+    assertThat(sut.hitRate()).isEqualTo(0.5);
+  }
+
+  @Test
+  void shouldMissIfScenarioDiffers() {
+    // GIVEN
+    sut.simulate(fight(0, 0, false), 96, Simulator.HEALTH_AND_SHIELD);
+    Simulator damaged = fight(0, 0, false);
+    damaged.getAgentsB().iterator().next().setHealth(20);
+
+    // WHEN
+    sut.simulate(damaged, 96, Simulator.HEALTH_AND_SHIELD);
+    sut.simulate(fight(0, 0, false), 48, Simulator.HEALTH_AND_SHIELD);
+    sut.simulate(fight(0, 0, false), 96, Simulator.HEALTH_AND_HALFED_SHIELD);
+
+    // THEN
+    assertThat(sut.getHits()).isZero();
+    assertThat(sut.getMisses()).isEqualTo(4);
+  }
+
+  @Test
+  void shouldEvictLeastRecentlyUsedOutcome() {
+    // GIVEN
+    SimulationCache cache = new SimulationCache(2, 32, 10);
+    cache.simulate(fight(0, 0, false), 24, Simulator.HEALTH_AND_SHIELD);
+    cache.simulate(fight(0, 0, false), 48, Simulator.HEALTH_AND_SHIELD);
+    cache.simulate(fight(0, 0, false), 24, Simulator.HEALTH_AND_SHIELD);
+
+    // WHEN
+    cache.simulate(fight(0, 0, false), 96, Simulator.HEALTH_AND_SHIELD);
+    cache.simulate(fight(0, 0, false), 24, Simulator.HEALTH_AND_SHIELD);
+
+    // THEN
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.getEvictions()).isEqualTo(1);
+    assertThat(cache.getHits()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldMissIfSimulatorConfigurationDiffers() {
+    // GIVEN
+    sut.simulate(fight(0, 0, false), 96, Simulator.HEALTH_AND_SHIELD);
+
+    // WHEN
+    sut.simulate(
+        fight(new Simulator.Builder().withFrameSkip(2), 0, 0, false),
+        96,
+        Simulator.HEALTH_AND_SHIELD);
+    sut.simulate(
+        fight(new Simulator.Builder().withSkipApproach(true), 0, 0, false),
+        96,
+        Simulator.HEALTH_AND_SHIELD);
+    sut.simulate(
+        fight(new Simulator.Builder().withPlayerABehavior(new RetreatBehavior()), 0, 0, false),
+        96,
+        Simulator.HEALTH_AND_SHIELD);
+
+    // THEN
+    assertThat(sut.getHits()).isZero();
+    assertThat(sut.getMisses()).isEqualTo(4);
+  }
+
+  @Test
+  void shouldMissIfCooldownOrDeathHandlerDiffers() {
+    // GIVEN
+    sut.simulate(fight(0, 0, false), 96, Simulator.HEALTH_AND_SHIELD);
+    Simulator cooling = fight(0, 0, false);
+    cooling.getAgentsA().iterator().next().setCooldown(10);
+    Simulator spawning = fight(0, 0, false);
+    spawning.getAgentsB().iterator().next().setOnDeathHandler((agent, agents) -> {});
+
+    // WHEN
+    sut.simulate(cooling, 96, Simulator.HEALTH_AND_SHIELD);
+    sut.simulate(spawning, 96, Simulator.HEALTH_AND_SHIELD);
+
+    // THEN
+    assertThat(sut.getHits()).isZero();
+    assertThat(sut.getMisses()).isEqualTo(3);
+  }
+
+  private Simulator fight(int dx, int dy, boolean reversed) {
+    return fight(new Simulator.Builder(), dx, dy, reversed);
+  }
+
+  private Simulator fight(Simulator.Builder builder, int dx, int dy, boolean reversed) {
+    Simulator simulator = builder.withSeed(42).build();
+    for (int i = 0; i < 4; i++) {
+      simulator.addAgentA(
+          factory.of(UnitType.Protoss_Dragoon).setX(1000 + dx + i * 40).setY(1000 + dy));
+    }
+    for (int j = 0; j < 8; j++) {
+      int i = reversed ? 7 - j : j;
+      simulator.addAgentB(
+          factory.of(UnitType.Zerg_Zergling).setX(1000 + dx + i * 20).setY(1150 + dy));
+    }
+    return simulator;
+  }
+}
@@ -0,0 +1,112 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.sim.Simulator.Builder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openbw.bwapi4j.test.BWDataProvider;
+import org.openbw.bwapi4j.type.UnitType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SimulationRecorderTest {
+
+  private Simulator simulator = new Builder().build();
+  private BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+
+  @BeforeAll
+  static void setup() throws Exception {
+    BWDataProvider.injectValues();
+  }
+
+  @Test
+  void shouldRecordAttacksAndDeaths() {
+    // GIVEN
+    SimulationRecorder sut = new SimulationRecorder(10000);
+    simulator.setRecorder(sut);
+    Agent marine = factory.of(UnitType.Terran_Marine).setX(100).setY(100);
+    Agent zergling = factory.of(UnitType.Zerg_Zergling).setX(100).setY(200);
+    simulator.addAgentA(marine);
+    simulator.addAgentB(zergling);
+
+    // WHEN
+    simulator.simulate(-1);
+
+    // THEN
+    List<String> events = new ArrayList<>();
+    sut.forEachEvent(
+        (frame, type, agent, other, a, b) -> {
+          if (type != SimulationRecorder.MOVE) {
+            events.add(SimulationRecorder.eventName(type) + ":" + agent.getName());
+          }
+        });
+    assertThat(events).contains("attack:Terran_Marine", "attack:Zerg_Zergling");
+    assertThat(events.get(events.size() - 1)).startsWith("death:");
+    assertThat(sut.getDroppedEvents()).isZero();
+  }
+
+  @Test
+  void shouldKeepOnlyLatestEvents() {
+    // GIVEN
+    SimulationRecorder sut = new SimulationRecorder(3);
+    Agent agent = factory.of(UnitType.Terran_Marine);
+
+    // WHEN
+    for (int i = 0; i < 5; i++) {
+      sut.frame = i;
+      sut.record(SimulationRecorder.MOVE, agent, null, i, i);
+    }
+
+    // THEN
+    List<Integer> frames = new ArrayList<>();
+    sut.forEachEvent((frame, type, a, other, x, y) -> frames.add(frame));
+    assertThat(frames).containsExactly(2, 3, 4);
+    assertThat(sut.size()).isEqualTo(3);
+    assertThat(sut.getDroppedEvents()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldKeepIdsOfAgentsSeenByOtherRecorders() throws Exception {
+    // GIVEN
+    SimulationRecorder sut = new SimulationRecorder(10);
+    SimulationRecorder other = new SimulationRecorder(10);
+    Agent medic = factory.of(UnitType.Terran_Medic);
+    Agent marine = factory.of(UnitType.Terran_Marine);
+
+    // WHEN
+    sut.record(SimulationRecorder.HEAL, medic, marine, 40, 0);
+    other.record(SimulationRecorder.HEAL, marine, medic, 40, 0);
+    sut.record(SimulationRecorder.HEAL, medic, marine, 45, 0);
+
+    // THEN
+    StringBuilder out = new StringBuilder();
+    sut.exportCsv(out);
+    assertThat(out.toString())
+        .isEqualTo(
+            "frame,event,agent,agentName,other,otherName,a,b\n"
+                + "0,heal,0,Terran_Medic,1,Terran_Marine,40,0\n"
+                + "0,heal,0,Terran_Medic,1,Terran_Marine,45,0\n");
+  }
+
+  @Test
+  void shouldExportCsv() throws Exception {
+    // GIVEN
+    SimulationRecorder sut = new SimulationRecorder(10);
+    Agent medic = factory.of(UnitType.Terran_Medic);
+    Agent marine = factory.of(UnitType.Terran_Marine);
+    sut.frame = 7;
+    sut.record(SimulationRecorder.HEAL, medic, marine, 40, 0);
+    StringBuilder out = new StringBuilder();
+
+    // WHEN
+    sut.exportCsv(out);
+
+    // THEN
+    assertThat(out.toString())
+        .isEqualTo(
+            "frame,event,agent,agentName,other,otherName,a,b\n"
+                + "7,heal,0,Terran_Medic,1,Terran_Marine,40,0\n");
+  }
+}
@@ -0,0 +1,168 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.collection.UnorderedCollection;
+import org.bk.ass.sim.Simulator.Behavior;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openbw.bwapi4j.test.BWDataProvider;
+import org.openbw.bwapi4j.type.UnitType;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SimulatorPoolTest {
+
+  private SimulatorPool sut = new SimulatorPool(new Simulator.Builder());
+  private BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+
+  @BeforeAll
+  static void setup() throws Exception {
+    BWDataProvider.injectValues();
+  }
+
+  @Test
+  void shouldReuseReleasedSimulatorWithoutAgents() {
+    // GIVEN
+    Simulator simulator = sut.acquire();
+    simulator.addAgentA(factory.of(UnitType.Terran_Marine));
+    simulator.addAgentB(factory.of(UnitType.Zerg_Zergling));
+    simulator.setMetrics(new SimulatorMetrics());
+
+    // WHEN
+    sut.release(simulator);
+    Simulator reused = sut.acquire();
+
+    // THEN
+    assertThat(reused).isSameAs(simulator);
+    assertThat(reused.getAgentsA()).isEmpty();
+    assertThat(reused.getAgentsB()).isEmpty();
+    assertThat(reused.getMetrics()).isNull();
+  }
+
+  @Test
+  void shouldReleaseSimulatorIfFunctionThrows() {
+    // GIVEN
+    AtomicReference<Simulator> used = new AtomicReference<>();
+
+    // WHEN
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            sut.withSimulator(
+                simulator -> {
+                  used.set(simulator);
+                  simulator.addAgentA(factory.of(UnitType.Terran_Marine));
+                  throw new IllegalStateException();
+                }));
+
+    // THEN
+    assertThat(sut.idleOfCurrentThread()).isEqualTo(1);
+    assertThat(used.get().getAgentsA()).isEmpty();
+  }
+
+  @Test
+  void shouldNotHandOutSimulatorsOfOtherThreads() throws Exception {
+    // GIVEN
+    Simulator released = sut.acquire();
+    sut.release(released);
+    AtomicReference<Simulator> acquired = new AtomicReference<>();
+
+    // WHEN
+    Thread thread = new Thread(() -> acquired.set(sut.acquire()));
+    thread.start();
+    thread.join();
+
+    // THEN
+    assertThat(acquired.get()).isNotNull().isNotSameAs(released);
+    assertThat(sut.idleOfCurrentThread()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldRejectReleasingTwice() {
+    // GIVEN
+    Simulator simulator = sut.acquire();
+    sut.release(simulator);
+
+    // WHEN
+    // THEN
+    assertThrows(IllegalStateException.class, () -> sut.release(simulator));
+  }
+
+  @Test
+  void shouldRejectReleasingTwiceAfterBeingDropped() {
+    // GIVEN
+    SimulatorPool pool = new SimulatorPool(new Simulator.Builder(), 0);
+    Simulator simulator = pool.acquire();
+    pool.release(simulator);
+
+    // WHEN
+    // THEN
+    assertThrows(IllegalStateException.class, () -> pool.release(simulator));
+  }
+
+  @Test
+  void shouldRestoreRandomStateOfSeededBuilder() {
+    // GIVEN
+    AtomicLong probedRandom = new AtomicLong();
+    Behavior probe =
+        new Behavior() {
+          @Override
+          public boolean simUnit(
+              int frameSkip,
+              Agent agent,
+              UnorderedCollection<Agent> allies,
+              UnorderedCollection<Agent> enemies) {
+            return false;
+          }
+
+          @Override
+          public boolean simUnit(
+              int frameSkip,
+              Agent agent,
+              UnorderedCollection<Agent> allies,
+              UnorderedCollection<Agent> enemies,
+              SimulationContext context) {
+            probedRandom.set(context.getRandom().nextLong());
+            return false;
+          }
+        };
+    SimulatorPool pool =
+        new SimulatorPool(new Simulator.Builder().withPlayerABehavior(probe).withSeed(7));
+    long first = probeRandom(pool, probedRandom);
+
+    // WHEN
+    long second = probeRandom(pool, probedRandom);
+
+    // THEN
+    assertThat(second).isEqualTo(first);
+    assertThat(pool.idleOfCurrentThread()).isEqualTo(1);
+  }
+
+  private long probeRandom(SimulatorPool pool, AtomicLong probedRandom) {
+    return pool.withSimulator(
+        simulator -> {
+          simulator.addAgentA(factory.of(UnitType.Terran_Marine));
+          simulator.addAgentB(factory.of(UnitType.Terran_Marine));
+          simulator.simulate(1);
+          return probedRandom.get();
+        });
+  }
+
+  @Test
+  void shouldDropSimulatorsExceedingLimit() {
+    // GIVEN
+    SimulatorPool pool = new SimulatorPool(new Simulator.Builder(), 1);
+    Simulator first = pool.acquire();
+    Simulator second = pool.acquire();
+
+    // WHEN
+    pool.release(first);
+    pool.release(second);
+
+    // THEN
+    assertThat(pool.idleOfCurrentThread()).isEqualTo(1);
+  }
+}
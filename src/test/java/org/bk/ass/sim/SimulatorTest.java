@@ -1,13 +1,22 @@
 package org.bk.ass.sim;
 
 import org.bk.ass.PositionOutOfBoundsException;
+import org.bk.ass.collection.UnorderedCollection;
+import org.bk.ass.sim.Simulator.Behavior;
 import org.bk.ass.sim.Simulator.Builder;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.openbw.bwapi4j.test.BWDataProvider;
 import org.openbw.bwapi4j.type.UnitType;
 import org.openbw.bwapi4j.type.WeaponType;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -15,12 +24,20 @@ class SimulatorTest {
 
   private Simulator simulator = new Builder().build();
   private BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+  private ForkJoinPool singleThreadPool = new ForkJoinPool(1);
+  private ForkJoinPool multiThreadPool = new ForkJoinPool(4);
 
   @BeforeAll
   static void setup() throws Exception {
     BWDataProvider.injectValues();
   }
 
+  @AfterEach
+  void shutdownPools() {
+    singleThreadPool.shutdown();
+    multiThreadPool.shutdown();
+  }
+
   @Test
   void stimmedVsUnstimmed() {
     // GIVEN
@@ -671,6 +688,72 @@ class SimulatorTest {
         .hasFieldOrPropertyWithValue("healthShifted", 38400);
   }
 
+  @Test
+  void shouldSimulateBehaviorWithoutContext() {
+    // GIVEN
+    Behavior attacker = new AttackerBehavior();
+    simulator =
+        new Builder()
+            .withPlayerABehavior(
+                (frameSkip, agent, allies, enemies) ->
+                    attacker.simUnit(frameSkip, agent, allies, enemies))
+            .build();
+    for (int i = 0; i < 4; i++) {
+      simulator.addAgentA(factory.of(UnitType.Terran_Marine).setX(10 + i * 10));
+    }
+    simulator.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(100));
+    simulator.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(110));
+
+    // WHEN
+    simulator.simulate(-1);
+
+    // THEN
+    assertThat(simulator.getAgentsA()).isNotEmpty();
+    assertThat(simulator.getAgentsB()).isEmpty();
+  }
+
+  @Test
+  void shouldThrowIfAgentIsSimulatedByTwoSimulatorsAtOnce() {
+    // GIVEN
+    Agent marine = factory.of(UnitType.Terran_Marine);
+    Simulator other = new Builder().build();
+    other.addAgentA(marine);
+    other.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(100));
+    simulator =
+        new Builder()
+            .withPlayerABehavior(
+                (frameSkip, agent, allies, enemies) -> {
+                  other.simulate(1);
+                  return true;
+                })
+            .build();
+    simulator.addAgentA(marine);
+    simulator.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(100));
+
+    // WHEN
+    assertThrows(IllegalStateException.class, () -> simulator.simulate(1));
+
+    // THEN
+    assertThat(other.simulate(1)).isZero();
+  }
+
+  @Test
+  void shouldSimulateAgentBySeveralSimulatorsOneAfterAnother() {
+    // GIVEN
+    Agent marine = factory.of(UnitType.Terran_Marine);
+    Simulator other = new Builder().build();
+    other.addAgentA(marine);
+    other.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(100));
+    simulator.addAgentA(marine);
+    simulator.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(100));
+
+    // WHEN
+    int framesLeft = simulator.simulate(8) + other.simulate(8);
+
+    // THEN
+    assertThat(framesLeft).isZero();
+  }
+
   @Test
   void addAgentAAtInvalidPositionShouldThrowException() {
     assertThrows(
@@ -698,7 +781,7 @@ class SimulatorTest {
     simulator.reset();
 
     // THEN
-    assertThat(simulator.collision).containsOnly(0);
+    assertThat(collisions()).containsOnly(0);
   }
 
   @Test
@@ -1009,4 +1092,386 @@ class SimulatorTest {
     assertThat(simulator.getAgentsA()).hasSizeLessThan(2);
     assertThat(simulator.getAgentsB()).hasSizeLessThan(4);
   }
+
+  @Test
+  void shouldSelectClosestEnemyOfManySpreadOutEnemies() {
+    // GIVEN
+    Agent marine = factory.of(UnitType.Terran_Marine).setX(1000).setY(1000);
+    simulator.addAgentA(marine);
+    for (int i = 0; i < 60; i++) {
+      simulator.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(3000 + i * 40).setY(i * 100));
+    }
+    Agent closest = factory.of(UnitType.Zerg_Zergling).setX(1300).setY(1100);
+    simulator.addAgentB(closest);
+
+    // WHEN
+    simulator.simulate(1);
+
+    // THEN
+    assertThat(marine.attackTarget).isEqualTo(closest);
+  }
+
+  @Test
+  void shouldReleaseAgentsFromGridAfterSimulation() {
+    // GIVEN
+    for (int i = 0; i < 60; i++) {
+      simulator.addAgentA(factory.of(UnitType.Terran_Marine).setX(1000 + i * 10).setY(1000));
+      simulator.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(1000 + i * 10).setY(1200));
+    }
+
+    // WHEN
+    simulator.simulate(24);
+
+    // THEN
+    assertThat(simulator.getAgentsA()).extracting(a -> a.nextInCell).containsOnlyNulls();
+    assertThat(simulator.getAgentsB()).extracting(a -> a.nextInCell).containsOnlyNulls();
+    assertThat(simulator.getAgentsB()).extracting(a -> a.gridCell).containsOnly(-1);
+  }
+
+  @Test
+  void shouldRestoreSnapshot() {
+    // GIVEN
+    for (int i = 0; i < 6; i++) {
+      simulator.addAgentA(factory.of(UnitType.Terran_Marine).setX(100 + i * 10).setY(100));
+      simulator.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(100 + i * 10).setY(200));
+    }
+    Simulator.Snapshot snapshot = simulator.snapshot();
+    simulator.simulate(-1);
+    int evalAfterFirstRun = simulator.evalToInt(Agent::getHealth).delta();
+
+    // WHEN
+    simulator.restore(snapshot);
+
+    // THEN
+    assertThat(simulator.getAgentsA()).hasSize(6);
+    assertThat(simulator.getAgentsA()).extracting(Agent::getHealth).containsOnly(40);
+    assertThat(simulator.getAgentsB()).extracting(a -> a.y).containsOnly(200);
+    simulator.simulate(-1);
+    assertThat(simulator.evalToInt(Agent::getHealth).delta()).isEqualTo(evalAfterFirstRun);
+  }
+
+  @Test
+  void shouldRestoreCollisionsAndRemoveAgentsAddedByDeathHandlers() {
+    // GIVEN
+    simulator.addAgentA(factory.of(UnitType.Terran_Bunker).setHealth(1));
+    simulator.addAgentB(factory.of(UnitType.Protoss_Zealot));
+    Simulator.Snapshot snapshot = simulator.snapshot(new Simulator.Snapshot());
+    simulator.simulate(1);
+
+    // WHEN
+    simulator.restore(snapshot);
+    simulator.reset();
+
+    // THEN
+    assertThat(collisions()).containsOnly(0);
+    simulator.restore(snapshot);
+    assertThat(simulator.getAgentsA()).extracting(Agent::getHealth).containsExactly(1);
+  }
+
+  @Test
+  void shouldReplaceAgentWithSameUserObject() {
+    // GIVEN
+    simulator.putAgentA(factory.of(UnitType.Terran_Marine).setUserObject(1).setX(100).setY(100));
+    simulator.putAgentB(factory.of(UnitType.Zerg_Zergling).setUserObject(2).setX(200).setY(100));
+
+    // WHEN
+    simulator.putAgentA(factory.of(UnitType.Terran_Marine).setUserObject(1).setX(500).setY(500));
+
+    // THEN
+    assertThat(simulator.getAgentsA()).extracting(a -> a.x).containsExactly(500);
+    assertThat(simulator.getAgent(1).x).isEqualTo(500);
+    assertThat(simulator.collision.get(6 * 512 + 6)).isZero();
+  }
+
+  @Test
+  void shouldKeepCollisionsConsistentWhenUpdatingAgents() {
+    // GIVEN
+    Agent marine = factory.of(UnitType.Terran_Marine).setUserObject(1).setX(100).setY(100);
+    simulator.putAgentA(marine);
+    simulator.putAgentA(factory.of(UnitType.Terran_Marine).setUserObject(2).setX(120).setY(100));
+    simulator.putAgentB(factory.of(UnitType.Zerg_Zergling).setUserObject(3).setX(200).setY(100));
+    Simulator.Snapshot snapshot = simulator.snapshot();
+    simulator.simulate(48);
+    simulator.restore(snapshot);
+
+    // WHEN
+    simulator.moveAgent(marine, 300, 300);
+    simulator.removeAgent(2);
+    simulator.removeAgent(3);
+    simulator.removeAgentA(marine);
+
+    // THEN
+    assertThat(simulator.getAgentsA()).isEmpty();
+    assertThat(simulator.getAgentsB()).isEmpty();
+    assertThat(simulator.getAgent(1)).isNull();
+    assertThat(simulator.getAgent(2)).isNull();
+    assertThat(collisions()).containsOnly(0);
+  }
+
+  @Test
+  void shouldForgetUserObjectsOfDeadAgentsUntilRestored() {
+    // GIVEN
+    Agent zergling =
+        factory.of(UnitType.Zerg_Zergling).setUserObject(2).setX(120).setY(100).setHealth(1);
+    simulator.putAgentA(factory.of(UnitType.Terran_Marine).setUserObject(1).setX(100).setY(100));
+    simulator.putAgentB(zergling);
+    Simulator.Snapshot snapshot = simulator.snapshot();
+
+    // WHEN
+    simulator.simulate(-1);
+
+    // THEN
+    assertThat(simulator.getAgentsB()).isEmpty();
+    assertThat(simulator.getAgent(2)).isNull();
+    simulator.restore(snapshot);
+    assertThat(simulator.getAgent(2)).isSameAs(zergling);
+  }
+
+  @Test
+  void shouldSimulateSameWithSparseCollisionMap() {
+    // GIVEN
+    Simulator sparse = new Builder().withCollisionMap(SparseCollisionMap::new).build();
+    for (int i = 0; i < 30; i++) {
+      simulator.addAgentA(factory.of(UnitType.Protoss_Zealot).setX(1000 + i * 8).setY(1000));
+      sparse.addAgentA(factory.of(UnitType.Protoss_Zealot).setX(1000 + i * 8).setY(1000));
+      simulator.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(1000 + i * 8).setY(1100));
+      sparse.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(1000 + i * 8).setY(1100));
+    }
+
+    // WHEN
+    simulator.simulate(-1);
+    sparse.simulate(-1);
+
+    // THEN
+    assertThat(sparse.getAgentsA())
+        .extracting(a -> a.x + "," + a.y + ":" + a.getHealth())
+        .containsExactlyElementsOf(
+            simulator.getAgentsA().stream()
+                .map(a -> a.x + "," + a.y + ":" + a.getHealth())
+                .collect(Collectors.toList()));
+    sparse.reset();
+    assertThat(collisions(sparse)).containsOnly(0);
+  }
+
+  @Test
+  void shouldSkipApproachAndResolveFight() {
+    // GIVEN
+    simulator = new Builder().withSkipApproach(true).build();
+    for (int i = 0; i < 10; i++) {
+      simulator.addAgentA(factory.of(UnitType.Protoss_Zealot).setX(1000 + i * 16).setY(1000));
+      simulator.addAgentB(factory.of(UnitType.Terran_Marine).setX(1000 + i * 16).setY(1800));
+    }
+
+    // WHEN
+    simulator.simulate(-1);
+
+    // THEN
+    assertThat(simulator.getAgentsA()).isNotEmpty();
+    assertThat(simulator.getAgentsB()).isEmpty();
+  }
+
+  @Test
+  void shouldUseFewerStepsWhenSkippingApproach() {
+    // GIVEN
+    Simulator skipping = new Builder().withSkipApproach(true).build();
+    for (int i = 0; i < 10; i++) {
+      simulator.addAgentA(factory.of(UnitType.Protoss_Zealot).setX(1000 + i * 16).setY(1000));
+      skipping.addAgentA(factory.of(UnitType.Protoss_Zealot).setX(1000 + i * 16).setY(1000));
+      simulator.addAgentB(factory.of(UnitType.Terran_Marine).setX(1000 + i * 16).setY(1800));
+      skipping.addAgentB(factory.of(UnitType.Terran_Marine).setX(1000 + i * 16).setY(1800));
+    }
+
+    // WHEN
+    skipping.simulate(96);
+    simulator.simulate(96);
+
+    // THEN
+    assertThat(simulator.getSteps()).isEqualTo(96);
+    assertThat(skipping.getSteps()).isLessThan(48);
+  }
+
+  @Test
+  void shouldSkipApproachWithFrameSkip() {
+    // GIVEN
+    Simulator skipping = new Builder().withSkipApproach(true).withFrameSkip(2).build();
+    simulator = new Builder().withFrameSkip(2).build();
+    for (int i = 0; i < 10; i++) {
+      simulator.addAgentA(factory.of(UnitType.Protoss_Zealot).setX(1000 + i * 16).setY(1000));
+      skipping.addAgentA(factory.of(UnitType.Protoss_Zealot).setX(1000 + i * 16).setY(1000));
+      simulator.addAgentB(factory.of(UnitType.Terran_Marine).setX(1000 + i * 16).setY(1800));
+      skipping.addAgentB(factory.of(UnitType.Terran_Marine).setX(1000 + i * 16).setY(1800));
+    }
+
+    // WHEN
+    skipping.simulate(96);
+    simulator.simulate(96);
+
+    // THEN
+    assertThat(simulator.getSteps()).isEqualTo(48);
+    assertThat(skipping.getSteps()).isLessThan(48);
+  }
+
+  @Test
+  void shouldSkipApproachOfFlyersAtOnce() {
+    // GIVEN
+    simulator = new Builder().withSkipApproach(true).build();
+    for (int i = 0; i < 60; i++) {
+      simulator.addAgentA(factory.of(UnitType.Zerg_Mutalisk).setX(1000 + i % 10 * 16).setY(1000));
+      simulator.addAgentB(
+          factory.of(UnitType.Protoss_Scout).setX(1000 + i % 10 * 16).setY(3000 + i / 10 * 16));
+    }
+
+    // WHEN
+    simulator.simulate(96);
+
+    // THEN
+    assertThat(simulator.getSteps()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldNotSkipFramesIfAlreadyEngaged() {
+    // GIVEN
+    Simulator skipping = new Builder().withSkipApproach(true).withSeed(1).build();
+    simulator = new Builder().withSeed(1).build();
+    for (int i = 0; i < 10; i++) {
+      simulator.addAgentA(factory.of(UnitType.Protoss_Dragoon).setX(1000 + i * 32).setY(1000));
+      skipping.addAgentA(factory.of(UnitType.Protoss_Dragoon).setX(1000 + i * 32).setY(1000));
+      simulator.addAgentB(factory.of(UnitType.Terran_Marine).setX(1000 + i * 16).setY(1100));
+      skipping.addAgentB(factory.of(UnitType.Terran_Marine).setX(1000 + i * 16).setY(1100));
+    }
+
+    // WHEN
+    int framesLeft = skipping.simulate(-1);
+
+    // THEN
+    assertThat(framesLeft).isEqualTo(simulator.simulate(-1));
+    assertThat(skipping.getSteps()).isEqualTo(simulator.getSteps());
+    assertThat(skipping.evalToInt(Agent::getHealth).delta())
+        .isEqualTo(simulator.evalToInt(Agent::getHealth).delta());
+  }
+
+  @Test
+  void shouldHitSameSplashTargetsWithManyAgents() {
+    // GIVEN
+    Agent tank = factory.of(UnitType.Terran_Siege_Tank_Siege_Mode).setX(1000).setY(800);
+    simulator.addAgentA(tank);
+    List<Agent> lings = new ArrayList<>();
+    List<Agent> expected = new ArrayList<>();
+    for (int i = 0; i < 60; i++) {
+      Agent ling =
+          factory.of(UnitType.Zerg_Zergling).setX(1000 + i % 10 * 12).setY(1000 + i / 10 * 12);
+      lings.add(ling);
+      expected.add(new Agent(ling));
+      simulator.addAgentB(ling);
+    }
+
+    // WHEN
+    simulator.simulate(1);
+
+    // THEN
+    Agent mainTarget = expected.get(lings.indexOf(tank.attackTarget));
+    AttackerBehavior.attack(
+        tank,
+        tank.groundWeapon,
+        mainTarget,
+        new UnorderedCollection<>(),
+        new UnorderedCollection<>(expected));
+    assertThat(lings).extracting(Agent::getHealth)
+        .containsExactlyElementsOf(
+            expected.stream().map(Agent::getHealth).collect(Collectors.toList()));
+    assertThat(lings).extracting(Agent::getHealth).contains(35);
+    assertThat(lings.stream().filter(ling -> ling.getHealth() < 35).count()).isGreaterThan(1L);
+  }
+
+  @Test
+  void shouldSimulateInParallelIndependentOfPoolSize() {
+    // GIVEN
+    Simulator single = largeBattle(singleThreadPool);
+    Simulator multi = largeBattle(multiThreadPool);
+
+    // WHEN
+    int singleFramesLeft = single.simulate(240);
+    int multiFramesLeft = multi.simulate(240);
+
+    // THEN
+    assertThat(multiFramesLeft).isEqualTo(singleFramesLeft);
+    assertThat(multi.getAgentsA()).extracting(agent -> agent.getHealth() + "/" + agent.x)
+        .containsExactlyElementsOf(
+            single.getAgentsA().stream()
+                .map(agent -> agent.getHealth() + "/" + agent.x)
+                .collect(Collectors.toList()));
+    assertThat(multi.getAgentsB()).extracting(agent -> agent.getHealth() + "/" + agent.y)
+        .containsExactlyElementsOf(
+            single.getAgentsB().stream()
+                .map(agent -> agent.getHealth() + "/" + agent.y)
+                .collect(Collectors.toList()));
+    assertThat(multi.getAgentsB().size()).isLessThan(100);
+  }
+
+  @Test
+  void shouldCollectMetrics() {
+    // GIVEN
+    Simulator sequential = largeBattle(null);
+    SimulatorMetrics metrics = new SimulatorMetrics();
+    sequential.setMetrics(metrics);
+
+    // WHEN
+    sequential.simulate(240);
+
+    // THEN
+    assertThat(metrics.getSteps()).isEqualTo(sequential.getSteps());
+    assertThat(metrics.getDeaths())
+        .isEqualTo(200 - sequential.getAgentsA().size() - sequential.getAgentsB().size());
+    assertThat(metrics.getAttacks()).isGreaterThan(metrics.getDeaths());
+    assertThat(metrics.getSplashVictims()).isPositive();
+    assertThat(metrics.getTargetScanIterations()).isPositive();
+    assertThat(metrics.getDistanceComputations()).isPositive();
+    assertThat(metrics.getBehaviorNanos()).isPositive();
+  }
+
+  @Test
+  void shouldCollectSameMetricsInParallel() {
+    // GIVEN
+    Simulator single = largeBattle(singleThreadPool);
+    Simulator multi = largeBattle(multiThreadPool);
+    SimulatorMetrics singleMetrics = new SimulatorMetrics();
+    SimulatorMetrics multiMetrics = new SimulatorMetrics();
+    single.setMetrics(singleMetrics);
+    multi.setMetrics(multiMetrics);
+
+    // WHEN
+    single.simulate(240);
+    multi.simulate(240);
+
+    // THEN
+    assertThat(multiMetrics.getAttacks()).isEqualTo(singleMetrics.getAttacks());
+    assertThat(multiMetrics.getSplashVictims()).isEqualTo(singleMetrics.getSplashVictims());
+    assertThat(multiMetrics.getTargetScanIterations())
+        .isEqualTo(singleMetrics.getTargetScanIterations());
+    assertThat(multiMetrics.getDeaths()).isEqualTo(singleMetrics.getDeaths());
+  }
+
+  private Simulator largeBattle(ForkJoinPool pool) {
+    Simulator simulator = new Builder().withParallelism(pool).withSeed(42).build();
+    for (int i = 0; i < 100; i++) {
+      UnitType type =
+          i % 10 == 0
+              ? UnitType.Terran_Medic
+              : i % 10 == 1 ? UnitType.Terran_Siege_Tank_Siege_Mode : UnitType.Terran_Marine;
+      simulator.addAgentA(factory.of(type).setX(1000 + i % 20 * 16).setY(1000 + i / 20 * 16));
+      simulator.addAgentB(
+          factory.of(i % 4 == 0 ? UnitType.Zerg_Hydralisk : UnitType.Zerg_Zergling)
+              .setX(1000 + i % 20 * 16)
+              .setY(1200 + i / 20 * 16));
+    }
+    return simulator;
+  }
+
+  private int[] collisions() {
+    return collisions(simulator);
+  }
+
+  private int[] collisions(Simulator simulator) {
+    return IntStream.range(0, 512 * 512).map(simulator.collision::get).toArray();
+  }
 }
@@ -0,0 +1,92 @@
+package org.bk.ass.sim;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SparseCollisionMapTest {
+
+  private SparseCollisionMap sut = new SparseCollisionMap(4);
+
+  @Test
+  void shouldKeepCountsWhenGrowing() {
+    // GIVEN
+
+    // WHEN
+    for (int i = 0; i < 1000; i++) {
+      sut.increment(i * 7);
+      sut.increment(i * 7);
+    }
+    for (int i = 0; i < 1000; i += 2) {
+      sut.decrement(i * 7);
+    }
+
+    // THEN
+    for (int i = 0; i < 1000; i++) {
+      assertThat(sut.get(i * 7)).isEqualTo(i % 2 == 0 ? 1 : 2);
+    }
+    assertThat(sut.get(1)).isZero();
+  }
+
+  @Test
+  void shouldClearAllTiles() {
+    // GIVEN
+    for (int i = 0; i < 100; i++) {
+      sut.increment(i * 512);
+    }
+
+    // WHEN
+    sut.clear();
+
+    // THEN
+    for (int i = 0; i < 100; i++) {
+      assertThat(sut.get(i * 512)).isZero();
+    }
+    sut.increment(512);
+    assertThat(sut.get(512)).isEqualTo(1);
+  }
+
+  @Test
+  void shouldNotGrowIfTilesAreNoLongerUsed() {
+    // GIVEN
+    sut.increment(0);
+
+    // WHEN
+    for (int i = 1; i < 10000; i++) {
+      sut.increment(i);
+      sut.decrement(i - 1);
+    }
+
+    // THEN
+    assertThat(sut.get(9999)).isEqualTo(1);
+    assertThat(sut.get(9998)).isZero();
+  }
+
+  @Test
+  void shouldIgnoreDecrementOfEmptyTile() {
+    // GIVEN
+    sut.decrement(512);
+    sut.clear();
+
+    // WHEN
+    sut.increment(512);
+
+    // THEN
+    assertThat(sut.get(512)).isEqualTo(1);
+  }
+
+  @Test
+  void shouldIgnoreDecrementOfEmptyTileInArrayCollisionMap() {
+    // GIVEN
+    ArrayCollisionMap arrayCollisionMap = new ArrayCollisionMap();
+    arrayCollisionMap.decrement(1024);
+    arrayCollisionMap.increment(512);
+    arrayCollisionMap.clear();
+
+    // WHEN
+    arrayCollisionMap.increment(1024);
+
+    // THEN
+    assertThat(arrayCollisionMap.get(1024)).isEqualTo(1);
+  }
+}
@@ -0,0 +1,144 @@
+package org.bk.ass.sim;
+
+import org.bk.ass.sim.StackSimulator.Builder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openbw.bwapi4j.test.BWDataProvider;
+import org.openbw.bwapi4j.type.UnitType;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StackSimulatorTest {
+
+  private StackSimulator sut = new Builder().build();
+  private BWAPI4JAgentFactory factory = new BWAPI4JAgentFactory(null);
+
+  @BeforeAll
+  static void setup() throws Exception {
+    BWDataProvider.injectValues();
+  }
+
+  @Test
+  void shouldStackIdenticalAgentsCloseToEachOther() {
+    // GIVEN
+    for (int i = 0; i < 10; i++) {
+      sut.addAgentA(factory.of(UnitType.Terran_Marine).setX(1000 + i * 5).setY(1000));
+    }
+    sut.addAgentA(factory.of(UnitType.Terran_Marine).setX(2000).setY(1000));
+    sut.addAgentA(factory.of(UnitType.Terran_Firebat).setX(1000).setY(1000));
+    sut.addAgentA(factory.of(UnitType.Terran_Medic).setX(1000).setY(1000));
+    sut.addAgentA(factory.of(UnitType.Terran_Medic).setX(1000).setY(1000));
+
+    // WHEN
+    int stacks = sut.getStacksA();
+
+    // THEN
+    assertThat(stacks).isEqualTo(5);
+    assertThat(sut.getAgentsA()).hasSize(14);
+  }
+
+  @Test
+  void shouldLetStrongerStackWin() {
+    // GIVEN
+    for (int i = 0; i < 12; i++) {
+      sut.addAgentA(factory.of(UnitType.Terran_Marine).setX(1000 + i * 16).setY(1000));
+    }
+    for (int i = 0; i < 6; i++) {
+      sut.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(1000 + i * 16).setY(1200));
+    }
+
+    // WHEN
+    sut.simulate(24 * 20);
+
+    // THEN
+    assertThat(sut.getAgentsA()).isNotEmpty();
+    assertThat(sut.getAgentsB()).isEmpty();
+    assertThat(sut.getStacksB()).isZero();
+  }
+
+  @Test
+  void shouldMoveAllAgentsOfStack() {
+    // GIVEN
+    Agent a = factory.of(UnitType.Zerg_Zergling).setX(1000).setY(1000);
+    Agent b = factory.of(UnitType.Zerg_Zergling).setX(1010).setY(1000);
+    sut.addAgentA(a);
+    sut.addAgentA(b);
+    sut.addAgentB(factory.of(UnitType.Terran_Marine).setX(1000).setY(1500));
+
+    // WHEN
+    sut.simulate(12);
+
+    // THEN
+    assertThat(a.y).isGreaterThan(1000);
+    assertThat(b.y).isEqualTo(a.y);
+    assertThat(b.x - a.x).isEqualTo(10);
+  }
+
+  @Test
+  void shouldDealSplashDamageToOtherAgentsOfStack() {
+    // GIVEN
+    sut.addAgentA(factory.of(UnitType.Protoss_Archon).setX(1000).setY(1000));
+    for (int i = 0; i < 6; i++) {
+      sut.addAgentB(factory.of(UnitType.Zerg_Zergling).setX(1000 + i * 8).setY(1030));
+    }
+
+    // WHEN
+    sut.simulate(1);
+
+    // THEN
+    long damaged =
+        sut.getAgentsB().stream()
+            .filter(agent -> agent.healthShifted < agent.maxHealthShifted)
+            .count();
+    assertThat(damaged).isGreaterThan(1);
+  }
+
+  @Test
+  void shouldCallDeathHandlerOfDeadAgents() {
+    // GIVEN
+    Agent spawned = factory.of(UnitType.Terran_Marine).setX(1000).setY(1100);
+    for (int i = 0; i < 4; i++) {
+      sut.addAgentA(factory.of(UnitType.Zerg_Hydralisk).setX(1000 + i * 16).setY(1000));
+    }
+    sut.addAgentB(
+        factory
+            .of(UnitType.Zerg_Zergling)
+            .setX(1000)
+            .setY(1100)
+            .setHealth(1)
+            .setOnDeathHandler((agent, agents) -> agents.add(spawned)));
+
+    // WHEN
+    sut.simulate(2);
+
+    // THEN
+    assertThat(sut.getAgentsB()).containsExactly(spawned);
+    assertThat(sut.getStacksB()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldBeCloseToSimulator() {
+    // GIVEN
+    Simulator simulator = new Simulator.Builder().build();
+    for (int i = 0; i < 30; i++) {
+      simulator.addAgentA(inFormation(UnitType.Zerg_Mutalisk, i, 1000));
+      simulator.addAgentB(inFormation(UnitType.Zerg_Hydralisk, i, 1200));
+      sut.addAgentA(inFormation(UnitType.Zerg_Mutalisk, i, 1000));
+      sut.addAgentB(inFormation(UnitType.Zerg_Hydralisk, i, 1200));
+    }
+    simulator.simulate(240);
+
+    // WHEN
+    sut.simulate(240);
+
+    // THEN
+    int expectedA = simulator.getAgentsA().size();
+    assertThat(simulator.getAgentsB()).isEmpty();
+    assertThat(sut.getAgentsB().size()).isLessThanOrEqualTo(3);
+    assertThat(sut.getAgentsA().size()).isBetween(expectedA - 5, expectedA + 5);
+  }
+
+  private Agent inFormation(UnitType type, int index, int y) {
+    return factory.of(type).setX(1000 + index % 10 * 20).setY(y + index / 10 * 20);
+  }
+}